@@ -0,0 +1,222 @@
+package jwna;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+final class BenchCycles {
+  static final Charset CHARSET = Charset.forName("windows-1251");
+  static final int VERSION = 0x1_40;
+  static final int PACKET_BEGIN_REQUEST  = 1;
+  static final int PACKET_END_REQUEST    = 2;
+  static final int PACKET_WRITE_DATA     = 3;
+  static final int PACKET_WRITE_MSG      = 4;
+  static final int PACKET_WRITE_PARAM    = 5;
+  static final int PACKET_APPEND_PARAM   = 6;
+  static final int PACKET_WRITE_DATA_Z   = 7;
+  static final int PACKET_WRITE_PARAM_Z  = 8;
+  static final int PACKET_APPEND_PARAM_Z = 9;
+  private static final int FAST_KEY = 0x01230123;
+  private static final int[] ARC_PRMS = {1, 2, 3, 4, 10, 18, 21, 22, 30, 31,
+    32};
+  private static final int[] PRMS = {5, 6, 7, 11, 12, 13, 14, 15, 16, 17, 19,
+    20, 24, 25, 26, 27, 28, 33, 34, 35, 36, 37, 38, 41, 48, 49, 50};
+  private static Path sArchivePath;
+  
+
+  private BenchCycles() {
+  }
+  
+
+  static synchronized Path init(String xlsWriter) throws IOException {
+    if(sArchivePath == null) {
+      final Path app = Files.createTempDirectory("jwna-bench");
+      final Path run = Paths.get("run");
+      try(DirectoryStream<Path> stream = Files.newDirectoryStream(run)) {
+        for(Path file: stream) {
+          if(Files.isRegularFile(file)) {
+            Files.copy(file, app.resolve(file.getFileName()));
+          }
+        }
+      }
+      sArchivePath = Files.createDirectory(app.resolve("archive"));
+      Common.initWithAppPath(app.toString());
+    }
+    final ArrayList<String> config = new ArrayList<>();
+    for(String line: Files.readAllLines(Paths.get("run", "jwna.config"),
+       StandardCharsets.UTF_8)) {
+      if(!line.startsWith("ArchivePath=") && !line.startsWith("XlsWriter=")) {
+        config.add(line);
+      }
+    }
+    config.add("ArchivePath=" + sArchivePath);
+    config.add("XlsWriter=" + xlsWriter);
+    Files.write(Paths.get(Common.getAppPath(), "jwna.config"), config,
+     StandardCharsets.UTF_8);
+    Common.load();
+    return sArchivePath;
+  }
+  
+
+  static void clearArchive() throws IOException {
+    if(sArchivePath != null) {
+      Files.walk(sArchivePath)
+       .sorted((a, b) -> b.compareTo(a))
+       .filter(path -> !path.equals(sArchivePath))
+       .forEach(path -> path.toFile().delete());
+    }
+    ArchiveIndex.getInstance().clear();
+  }
+  
+
+  static byte[] getDataText(int regLines) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("ManualControl=F\r\nPipeNumber=2600777\r\n")
+     .append("PipeDiameter=1420\r\nPipeThickness=15,7\r\n")
+     .append("PersonnelNo=0042\r\nWeldingSpeedFv=1.25\r\n")
+     .append("WireIdMax=1234\r\nHorzHeadPositionRange=2,5\r\n")
+     .append("StProvarActive=1\r\nProvarActive=0\r\nWelder=")
+     .append("\u0418\u0432\u0430\u043d\u043e\u0432 \u0418.\u0418.\r\n");
+    for(int i = 1; i <= 4; i++) {
+      builder.append("Ix").append(i).append('=').append(800 + 10*i)
+       .append("\r\nUx").append(i).append('=').append(30 + i)
+       .append("\r\nWelderState").append(i).append("=1\r\nWireDiameter")
+       .append(i).append("=4\r\n");
+    }
+    final String[] groups = {"Reg", "WeldPar", "StartPar", "StProvarPar",
+      "DnProvarPar", "AutoPar", "DownPar", "CaretPar"};
+    for(int i = 0; i < regLines; i++) {
+      builder.append(groups[i % groups.length]).append('-')
+       .append(1 + i/groups.length % 4).append('-').append(i)
+       .append('=').append(i % 3 == 0 ? "12,5" : Integer.toString(i))
+       .append("\r\n");
+    }
+    return builder.toString().getBytes(CHARSET);
+  }
+  
+
+  static byte[] getParam(int prm, int con, int samples) {
+    final byte[] param = new byte[3*samples];
+    for(int i = 0; i < samples; i++) {
+      final int v = (i/50)*10 + prm*7 + con;
+      param[3*i] = (byte)v;
+      param[3*i + 1] = (byte)(v >> 8);
+      param[3*i + 2] = (byte)(i % 7);
+    }
+    return param;
+  }
+  
+
+  static WeldingData createWeldingData(String ip, int samples) {
+    final WeldingData wd = new WeldingData();
+    wd.setIpAddr(ip);
+    wd.setVersion(VERSION);
+    wd.setPipeNumber("2600777");
+    wd.setPipeThickness("15,7");
+    wd.setData(getDataText(200), CHARSET);
+    for(int prm: ARC_PRMS) {
+      for(int con = 1; con <= 4; con++) {
+        wd.setParam(WeldingData.getParamKey(prm, con),
+         getParam(prm, con, samples), 0, 3*samples);
+      }
+    }
+    for(int prm: PRMS) {
+      wd.setParam(WeldingData.getParamKey(prm, 0), getParam(prm, 0, samples),
+       0, 3*samples);
+    }
+    return wd;
+  }
+  
+
+  static List<byte[]> createPackets(int packetId, int count, int samples) {
+    final ArrayList<byte[]> packets = new ArrayList<>(count + 2);
+    final byte[] begin = new byte[50];
+    System.arraycopy("WELDING   ".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 0, 10);
+    System.arraycopy("2600777".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 10, 7);
+    System.arraycopy("15,7".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 30, 4);
+    packets.add(frame(2, PACKET_BEGIN_REQUEST, 0, begin));
+    int seq = 1;
+    for(int i = 0; i < count; i++) {
+      packets.add(frame(4, packetId, seq++, getPayload(packetId, i, samples)));
+    }
+    packets.add(frame(4, PACKET_END_REQUEST, seq, new byte[0]));
+    return packets;
+  }
+  
+
+  private static byte[] getPayload(int packetId, int index, int samples) {
+    final int prm = ARC_PRMS[index % ARC_PRMS.length];
+    final int con = 1 + index/ARC_PRMS.length % 4;
+    switch(packetId) {
+      case PACKET_WRITE_DATA:
+        return getDataText(200);
+      case PACKET_WRITE_MSG:
+        return getDataText(20);
+      case PACKET_WRITE_PARAM:
+      case PACKET_APPEND_PARAM:
+        return withParamHeader(prm, con, getParam(prm, con, samples));
+      case PACKET_WRITE_DATA_Z:
+        return deflate(getDataText(200));
+      case PACKET_WRITE_PARAM_Z:
+      case PACKET_APPEND_PARAM_Z:
+        return withParamHeader(prm, con,
+         deflate(getParam(prm, con, samples)));
+      default:
+        throw new IllegalArgumentException("Packet: " + packetId);
+    }
+  }
+  
+
+  private static byte[] withParamHeader(int prm, int con, byte[] values) {
+    final byte[] payload = new byte[2 + values.length];
+    payload[0] = (byte)prm;
+    payload[1] = (byte)con;
+    System.arraycopy(values, 0, payload, 2, values.length);
+    return payload;
+  }
+  
+
+  private static byte[] deflate(byte[] values) {
+    final Deflater deflater = new Deflater();
+    deflater.setInput(values);
+    deflater.finish();
+    final byte[] buffer = new byte[values.length + 64];
+    final int length = deflater.deflate(buffer);
+    deflater.end();
+    final byte[] payload = new byte[4 + length];
+    putInt(payload, 0, values.length, 4);
+    System.arraycopy(buffer, 0, payload, 4, length);
+    return payload;
+  }
+  
+
+  private static byte[] frame(int lengthSize, int packetId, int seq,
+     byte[] payload) {
+    final int length = 10 + payload.length;
+    final byte[] packet = new byte[lengthSize + length];
+    putInt(packet, 0, length, lengthSize);
+    putInt(packet, lengthSize, FAST_KEY, 4);
+    putInt(packet, lengthSize + 4, VERSION, 2);
+    putInt(packet, lengthSize + 6, packetId, 2);
+    putInt(packet, lengthSize + 8, seq, 2);
+    System.arraycopy(payload, 0, packet, lengthSize + 10, payload.length);
+    return packet;
+  }
+  
+
+  private static void putInt(byte[] buffer, int offset, int value, int size) {
+    for(int i = 0; i < size; i++) {
+      buffer[offset + i] = (byte)(value >>> 8*i);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package jwna;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellBench {
+  private static final String[] SHEET_NAMES = {"Data", "Setup", "Reg",
+    "Changes", "Params"};
+  private static final int ROWS = 2000;
+  private static final int COLS = 60;
+  private static final int CELLS = 500;
+
+  @Param({Common.WRITER_POI, Common.WRITER_BIFF})
+  public String writer;
+
+  private Path mTemplatePath;
+  private HSSFWorkbook mWorkbook;
+  private BiffWorkbook mBiffWorkbook;
+  
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    BenchCycles.init(writer);
+    mTemplatePath = Paths.get(Common.getAppPath(), "template-o.xls");
+  }
+  
+
+  @Setup(Level.Invocation)
+  public void setUpWorkbook() throws IOException {
+    if(Common.WRITER_BIFF.equals(writer)) {
+      mBiffWorkbook = new BiffWorkbook(
+       TemplateCache.getInstance().getBiffTemplate(mTemplatePath),
+       SHEET_NAMES);
+    }
+    else {
+      mWorkbook = new HSSFWorkbook(new ByteArrayInputStream(
+       TemplateCache.getInstance().get(mTemplatePath)));
+    }
+  }
+  
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS*COLS)
+  public Object setRange() {
+    if(mBiffWorkbook != null) {
+      for(int row = 0; row < ROWS; row++) {
+        for(int col = 0; col < COLS; col++) {
+          mBiffWorkbook.setNumber(0, 5 + row, col, row*0.5 + col);
+        }
+      }
+      return mBiffWorkbook;
+    }
+    final Sheet sheet = mWorkbook.getSheetAt(0);
+    for(int row = 0; row < ROWS; row++) {
+      final Row rowObj = getRow(sheet, 5 + row);
+      for(int col = 0; col < COLS; col++) {
+        getCell(rowObj, col).setCellValue(row*0.5 + col);
+      }
+    }
+    return mWorkbook;
+  }
+  
+
+  @Benchmark
+  @OperationsPerInvocation(CELLS)
+  public Object setCell() {
+    for(int i = 0; i < CELLS; i++) {
+      final int sheet = 1 + i % 3;
+      final int row = 5 + i/3 % 60;
+      final int col = i % 20;
+      if(mBiffWorkbook != null) {
+        if(i % 4 == 0) {
+          mBiffWorkbook.setText(sheet, row, col, "Text " + i);
+        }
+        else {
+          mBiffWorkbook.setNumber(sheet, row, col, i*1.5);
+        }
+      }
+      else {
+        final Cell cell = getCell(getRow(mWorkbook.getSheetAt(sheet), row),
+         col);
+        if(i % 4 == 0) {
+          cell.setCellValue("Text " + i);
+        }
+        else {
+          cell.setCellValue(i*1.5);
+        }
+      }
+    }
+    return mBiffWorkbook != null ? mBiffWorkbook : mWorkbook;
+  }
+  
+
+  private static Row getRow(Sheet sheet, int row) {
+    final Row rowObj = sheet.getRow(row);
+    return rowObj == null ? sheet.createRow(row) : rowObj;
+  }
+  
+
+  private static Cell getCell(Row row, int col) {
+    final Cell cell = row.getCell(col);
+    return cell == null ? row.createCell(col) : cell;
+  }
+}
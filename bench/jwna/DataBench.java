@@ -0,0 +1,63 @@
+package jwna;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataBench {
+  private static final String[] NAMES = {"ManualControl", "PipeNumber",
+    "PipeDiameter", "PipeThickness", "PersonnelNo", "WeldingSpeedFv",
+    "WireIdMax", "HorzHeadPositionRange", "StProvarActive", "ProvarActive",
+    "Ix1", "Ix2", "Ix3", "Ix4", "Ux1", "Ux2", "Ux3", "Ux4", "WelderState1",
+    "WireDiameter1"};
+  private static final String[] GROUPS = {"Reg-1-", "Reg-2-", "WeldPar-1-",
+    "StartPar-2-", "AutoPar-3-", "CaretPar-4-"};
+
+  @Param({"200", "1000"})
+  public int lines;
+
+  private byte[] mData;
+  
+
+  @Setup
+  public void setUp() {
+    mData = BenchCycles.getDataText(lines);
+  }
+  
+
+  @Benchmark
+  public WeldingData setData() {
+    final WeldingData wd = new WeldingData();
+    wd.setData(mData, BenchCycles.CHARSET);
+    return wd;
+  }
+  
+
+  @Benchmark
+  public void setDataAndRead(Blackhole blackhole) {
+    final WeldingData wd = new WeldingData();
+    wd.setData(mData, BenchCycles.CHARSET);
+    for(String name: NAMES) {
+      blackhole.consume(wd.getDataValue(name));
+    }
+    for(String group: GROUPS) {
+      blackhole.consume(wd.getDataGroup(group));
+    }
+  }
+}
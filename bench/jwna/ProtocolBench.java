@@ -0,0 +1,49 @@
+package jwna;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBench {
+  private static final int PACKETS = 44;
+
+  @Param({"3", "4", "5", "6", "7", "8", "9"})
+  public int packetId;
+
+  @Param({"3000"})
+  public int samples;
+
+  private List<byte[]> mPackets;
+  
+
+  @Setup
+  public void setUp() throws IOException {
+    BenchCycles.init(Common.WRITER_POI);
+    mPackets = BenchCycles.createPackets(packetId, PACKETS, samples);
+  }
+  
+
+  @Benchmark
+  @OperationsPerInvocation(PACKETS)
+  public WeldingData decode() throws IOException {
+    return Server.getInstance().decode(0, "127.0.0.1", mPackets);
+  }
+}
@@ -0,0 +1,70 @@
+package jwna;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaverBench {
+  @Param({Common.TEST_IP_ADDR_800_I, Common.TEST_IP_ADDR_800_O,
+    Common.TEST_IP_ADDR_1000_I, Common.TEST_IP_ADDR_1000_O})
+  public String stan;
+
+  @Param({"3000", "20000"})
+  public int samples;
+
+  @Param({Common.WRITER_POI, Common.WRITER_BIFF})
+  public String writer;
+
+  private DataSaver mDataSaver;
+  private WeldingData mWd;
+  
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    BenchCycles.init(writer);
+    mDataSaver = new DataSaver();
+  }
+  
+
+  @Setup(Level.Invocation)
+  public void setUpCycle() {
+    mWd = BenchCycles.createWeldingData(stan, samples);
+  }
+  
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    BenchCycles.clearArchive();
+  }
+  
+
+  @Benchmark
+  public DataSaver.Output render() throws IOException {
+    return mDataSaver.render(mWd);
+  }
+  
+
+  @Benchmark
+  public WeldingData save() throws IOException {
+    mDataSaver.save(mWd);
+    return mWd;
+  }
+}
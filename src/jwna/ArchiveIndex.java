@@ -0,0 +1,145 @@
+package jwna;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ArchiveIndex {
+  private static final int DIRS_MAX = 256;
+  private static final ArchiveIndex sInstance = new ArchiveIndex();
+  private final LinkedHashMap<Path, Dir> mDirs =
+   new LinkedHashMap<Path, Dir>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, Dir> eldest) {
+      return size() > DIRS_MAX;
+    }
+  };
+  
+
+  private static class Dir {
+    private final HashSet<String> mNames = new HashSet<>();
+    private final HashMap<String, Integer> mNextIndexes = new HashMap<>();
+    private boolean mLoaded;
+    
+
+    private void load(Path path) throws IOException {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+        for(Path file: stream) {
+          add(file.getFileName().toString());
+        }
+      }
+      catch(NoSuchFileException ex) {
+        Files.createDirectories(path);
+      }
+      mLoaded = true;
+    }
+    
+
+    private void add(String name) {
+      if(name.endsWith(DataSaver.TEMP_SUFFIX)) {
+        name = name.substring(0,
+         name.length() - DataSaver.TEMP_SUFFIX.length());
+      }
+      mNames.add(name);
+      final int dot = name.lastIndexOf('.');
+      final String stem = dot < 0 ? name : name.substring(0, dot);
+      final int underscore = stem.lastIndexOf('_');
+      if(underscore < 0 || underscore == stem.length() - 1
+         || stem.length() - underscore > 10) {
+        return;
+      }
+      int index = 0;
+      for(int i = underscore + 1; i < stem.length(); i++) {
+        final char c = stem.charAt(i);
+        if(c < '0' || c > '9') {
+          return;
+        }
+        index = index*10 + (c - '0');
+      }
+      final String base = stem.substring(0, underscore);
+      final Integer next = mNextIndexes.get(base);
+      if(next == null || next <= index) {
+        mNextIndexes.put(base, index + 1);
+      }
+    }
+    
+
+    private boolean isTaken(String base, List<String> exts) {
+      for(String ext: exts) {
+        if(mNames.contains(base + ext)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+  
+
+  public static ArchiveIndex getInstance() {
+    return sInstance;
+  }
+  
+
+  public String allocate(Path dir, String base, List<String> exts,
+     boolean numbered) throws IOException {
+    final Dir entry;
+    synchronized(mDirs) {
+      Dir d = mDirs.get(dir);
+      if(d == null) {
+        d = new Dir();
+        mDirs.put(dir, d);
+      }
+      entry = d;
+    }
+    synchronized(entry) {
+      if(!entry.mLoaded) {
+        entry.load(dir);
+      }
+      String name = base;
+      if(entry.isTaken(base, exts)) {
+        if(!numbered) {
+          throw new FileAlreadyExistsException(
+           dir.resolve(base + exts.get(0)).toString());
+        }
+        final Integer next = entry.mNextIndexes.get(base);
+        int index = next == null ? 1 : next;
+        while(entry.isTaken(base + "_" + Integer.toString(index), exts)) {
+          index++;
+        }
+        name = base + "_" + Integer.toString(index);
+      }
+      for(String ext: exts) {
+        entry.add(name + ext);
+      }
+      return name;
+    }
+  }
+  
+
+  public void release(Path dir, String name) {
+    final Dir entry;
+    synchronized(mDirs) {
+      entry = mDirs.get(dir);
+    }
+    if(entry != null) {
+      synchronized(entry) {
+        entry.mNames.remove(name);
+      }
+    }
+  }
+  
+
+  public void clear() {
+    synchronized(mDirs) {
+      mDirs.clear();
+    }
+  }
+}
@@ -0,0 +1,365 @@
+package jwna;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class BiffTemplate {
+  static final int SID_BOF         = 0x0809;
+  static final int SID_BOUNDSHEET  = 0x0085;
+  static final int SID_INDEX       = 0x020B;
+  static final int SID_DEFCOLWIDTH = 0x0055;
+  static final int SID_COLINFO     = 0x007D;
+  static final int SID_DIMENSIONS  = 0x0200;
+  static final int SID_ROW         = 0x0208;
+  static final int SID_DBCELL      = 0x00D7;
+  static final int SID_CONTINUE    = 0x003C;
+  static final int SID_BLANK       = 0x0201;
+  static final int SID_NUMBER      = 0x0203;
+  static final int SID_LABEL       = 0x0204;
+  static final int SID_BOOLERR     = 0x0205;
+  static final int SID_RK          = 0x027E;
+  static final int SID_MULRK       = 0x00BD;
+  static final int SID_MULBLANK    = 0x00BE;
+  static final int SID_LABELSST    = 0x00FD;
+  static final int SID_RSTRING     = 0x00D6;
+  static final int SID_FORMULA     = 0x0006;
+  static final int SID_STRING      = 0x0207;
+  static final int SID_ARRAY       = 0x0221;
+  static final int SID_SHRFMLA     = 0x04BC;
+  static final int SID_TABLE       = 0x0236;
+  static final String WORKBOOK = "Workbook";
+  private final CompoundFile mFile;
+  private final byte[] mGlobals;
+  private final String[] mSheetNames;
+  private final int[] mSheetOffsets;
+  private final Sheet[] mSheets;
+  
+
+  static final class Sheet {
+    final byte[] mHead;
+    final int mIndexPos;
+    final int mDefColWidthPos;
+    final int mDimensionsPos;
+    final int[] mColInfos;
+    final int[] mRows;
+    final byte[][] mRowRecords;
+    final int[][] mCols;
+    final byte[][][] mCells;
+    final byte[] mTail;
+    
+
+    private Sheet(byte[] head, int indexPos, int defColWidthPos,
+       int dimensionsPos, int[] colInfos, int[] rows, byte[][] rowRecords,
+       int[][] cols, byte[][][] cells, byte[] tail) {
+      mHead = head;
+      mIndexPos = indexPos;
+      mDefColWidthPos = defColWidthPos;
+      mDimensionsPos = dimensionsPos;
+      mColInfos = colInfos;
+      mRows = rows;
+      mRowRecords = rowRecords;
+      mCols = cols;
+      mCells = cells;
+      mTail = tail;
+    }
+    
+
+    int findRow(int row) {
+      return Arrays.binarySearch(mRows, row);
+    }
+    
+
+    int getColumnXf(int col, int defaultXf) {
+      for(int i = 0; i < mColInfos.length; i += 3) {
+        if(mColInfos[i] <= col && col <= mColInfos[i + 1]) {
+          return mColInfos[i + 2];
+        }
+      }
+      return defaultXf;
+    }
+  }
+  
+
+  private BiffTemplate(CompoundFile file, byte[] globals, String[] sheetNames,
+     int[] sheetOffsets, Sheet[] sheets) {
+    mFile = file;
+    mGlobals = globals;
+    mSheetNames = sheetNames;
+    mSheetOffsets = sheetOffsets;
+    mSheets = sheets;
+  }
+  
+
+  public static BiffTemplate parse(byte[] file) throws IOException {
+    final CompoundFile compoundFile = new CompoundFile(file, WORKBOOK);
+    final byte[] stream = compoundFile.getStream();
+
+    final ArrayList<Integer> offsetPositions = new ArrayList<>();
+    final ArrayList<String> names = new ArrayList<>();
+    int pos = 0;
+    while(pos + 4 <= stream.length) {
+      final int sid = getShort(stream, pos);
+      final int len = getShort(stream, pos + 2);
+      if(sid == 0x000A) {
+        pos += 4 + len;
+        break;
+      }
+      if(sid == SID_BOUNDSHEET) {
+        offsetPositions.add(pos + 4);
+        names.add(getSheetName(stream, pos + 4));
+      }
+      pos += 4 + len;
+    }
+    final int globalsLength = pos;
+
+    final int sheetCount = names.size();
+    final Integer[] order = new Integer[sheetCount];
+    for(int i = 0; i < sheetCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(
+     getInt(stream, offsetPositions.get(a)),
+     getInt(stream, offsetPositions.get(b))));
+
+    final String[] sheetNames = new String[sheetCount];
+    final int[] sheetOffsets = new int[sheetCount];
+    final Sheet[] sheets = new Sheet[sheetCount];
+    for(int i = 0; i < sheetCount; i++) {
+      final int start = getInt(stream, offsetPositions.get(order[i]));
+      final int end = i + 1 < sheetCount
+       ? getInt(stream, offsetPositions.get(order[i + 1]))
+       : stream.length;
+      if(start < globalsLength || end < start || end > stream.length) {
+        throw new IOException("Bad sheet offset in template");
+      }
+      sheetNames[i] = names.get(order[i]);
+      sheetOffsets[i] = offsetPositions.get(order[i]);
+      sheets[i] = parseSheet(stream, start, end);
+    }
+    return new BiffTemplate(compoundFile, Arrays.copyOf(stream, globalsLength),
+     sheetNames, sheetOffsets, sheets);
+  }
+  
+
+  CompoundFile getFile() {
+    return mFile;
+  }
+  
+
+  byte[] getGlobals() {
+    return mGlobals;
+  }
+  
+
+  int getSheetCount() {
+    return mSheets.length;
+  }
+  
+
+  int findSheet(String name) {
+    for(int i = 0; i < mSheetNames.length; i++) {
+      if(mSheetNames[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+
+  int getSheetOffsetPos(int index) {
+    return mSheetOffsets[index];
+  }
+  
+
+  Sheet getSheet(int index) {
+    return mSheets[index];
+  }
+  
+
+  private static Sheet parseSheet(byte[] stream, int start, int end)
+     throws IOException {
+    final ByteBuf head = new ByteBuf(0x400);
+    int indexPos = -1;
+    int defColWidthPos = -1;
+    int dimensionsPos = -1;
+    final ArrayList<Integer> colInfos = new ArrayList<>();
+    int pos = start;
+    while(pos + 4 <= end && dimensionsPos < 0) {
+      final int sid = getShort(stream, pos);
+      final int len = 4 + getShort(stream, pos + 2);
+      if(sid == SID_INDEX) {
+        indexPos = head.size();
+      }
+      else {
+        if(sid == SID_DEFCOLWIDTH) {
+          defColWidthPos = head.size();
+        }
+        else if(sid == SID_DIMENSIONS) {
+          dimensionsPos = head.size();
+        }
+        else if(sid == SID_COLINFO) {
+          colInfos.add(getShort(stream, pos + 4));
+          colInfos.add(getShort(stream, pos + 6));
+          colInfos.add(getShort(stream, pos + 10));
+        }
+        head.put(stream, pos, len);
+      }
+      pos += len;
+    }
+    if(dimensionsPos < 0) {
+      return new Sheet(Arrays.copyOfRange(stream, start, end), -1, -1, -1,
+       new int[0], new int[0], new byte[0][], new int[0][], new byte[0][][],
+       new byte[0]);
+    }
+
+    final TreeMap<Integer, byte[]> rowRecords = new TreeMap<>();
+    final TreeMap<Integer, TreeMap<Integer, byte[]>> cells = new TreeMap<>();
+    byte[] last = null;
+    int lastRow = 0;
+    int lastCol = 0;
+    table: while(pos + 4 <= end) {
+      final int sid = getShort(stream, pos);
+      final int len = 4 + getShort(stream, pos + 2);
+      final int row = len >= 6 ? getShort(stream, pos + 4) : 0;
+      switch(sid) {
+        case SID_ROW:
+          rowRecords.put(row, Arrays.copyOfRange(stream, pos, pos + len));
+          last = null;
+          break;
+        case SID_DBCELL:
+          last = null;
+          break;
+        case SID_MULRK:
+        case SID_MULBLANK: {
+          final boolean rk = sid == SID_MULRK;
+          final int first = getShort(stream, pos + 6);
+          final int count = (len - 10)/(rk ? 6 : 2);
+          for(int i = 0; i < count; i++) {
+            final int xf = getShort(stream, pos + 8 + i*(rk ? 6 : 2));
+            final ByteBuf cell = new ByteBuf(rk ? 14 : 10);
+            cell.putShort(rk ? SID_RK : SID_BLANK);
+            cell.putShort(rk ? 10 : 6);
+            cell.putShort(row);
+            cell.putShort(first + i);
+            cell.putShort(xf);
+            if(rk) {
+              cell.put(stream, pos + 10 + i*6, 4);
+            }
+            getCells(cells, row).put(first + i, cell.toByteArray());
+          }
+          last = null;
+          break;
+        }
+        case SID_BLANK:
+        case SID_NUMBER:
+        case SID_LABEL:
+        case SID_BOOLERR:
+        case SID_RK:
+        case SID_LABELSST:
+        case SID_RSTRING:
+        case SID_FORMULA:
+          last = Arrays.copyOfRange(stream, pos, pos + len);
+          lastRow = row;
+          lastCol = getShort(stream, pos + 6);
+          getCells(cells, row).put(lastCol, last);
+          break;
+        case SID_STRING:
+        case SID_ARRAY:
+        case SID_SHRFMLA:
+        case SID_TABLE:
+        case SID_CONTINUE:
+          if(last == null) {
+            throw new IOException(String.format(
+             "Unexpected record 0x%04X in template cell table", sid));
+          }
+          last = concat(last, stream, pos, len);
+          getCells(cells, lastRow).put(lastCol, last);
+          break;
+        default:
+          break table;
+      }
+      pos += len;
+    }
+
+    final TreeMap<Integer, Boolean> allRows = new TreeMap<>();
+    for(Integer row: rowRecords.keySet()) {
+      allRows.put(row, true);
+    }
+    for(Integer row: cells.keySet()) {
+      allRows.put(row, true);
+    }
+    final int n = allRows.size();
+    final int[] rows = new int[n];
+    final byte[][] records = new byte[n][];
+    final int[][] cols = new int[n][];
+    final byte[][][] values = new byte[n][][];
+    int i = 0;
+    for(Integer row: allRows.keySet()) {
+      rows[i] = row;
+      records[i] = rowRecords.get(row);
+      final TreeMap<Integer, byte[]> rowCells = cells.get(row);
+      final int count = rowCells == null ? 0 : rowCells.size();
+      cols[i] = new int[count];
+      values[i] = new byte[count][];
+      if(rowCells != null) {
+        int j = 0;
+        for(Map.Entry<Integer, byte[]> entry: rowCells.entrySet()) {
+          cols[i][j] = entry.getKey();
+          values[i][j++] = entry.getValue();
+        }
+      }
+      i++;
+    }
+    final int[] colInfoArray = new int[colInfos.size()];
+    for(int j = 0; j < colInfoArray.length; j++) {
+      colInfoArray[j] = colInfos.get(j);
+    }
+    return new Sheet(head.toByteArray(), indexPos, defColWidthPos,
+     dimensionsPos, colInfoArray, rows, records, cols, values,
+     Arrays.copyOfRange(stream, pos, end));
+  }
+  
+
+  private static TreeMap<Integer, byte[]> getCells(
+     TreeMap<Integer, TreeMap<Integer, byte[]>> cells, int row) {
+    TreeMap<Integer, byte[]> rowCells = cells.get(row);
+    if(rowCells == null) {
+      rowCells = new TreeMap<>();
+      cells.put(row, rowCells);
+    }
+    return rowCells;
+  }
+  
+
+  private static byte[] concat(byte[] first, byte[] stream, int pos, int len) {
+    final byte[] result = Arrays.copyOf(first, first.length + len);
+    System.arraycopy(stream, pos, result, first.length, len);
+    return result;
+  }
+  
+
+  private static String getSheetName(byte[] stream, int data) {
+    final int cch = stream[data + 6] & 0xFF;
+    final boolean wide = (stream[data + 7] & 0x01) != 0;
+    final char[] chars = new char[cch];
+    for(int i = 0; i < cch; i++) {
+      chars[i] = wide
+       ? (char)getShort(stream, data + 8 + 2*i)
+       : (char)(stream[data + 8 + i] & 0xFF);
+    }
+    return new String(chars);
+  }
+  
+
+  static int getShort(byte[] data, int pos) {
+    return (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8;
+  }
+  
+
+  static int getInt(byte[] data, int pos) {
+    return getShort(data, pos) | getShort(data, pos + 2) << 16;
+  }
+}
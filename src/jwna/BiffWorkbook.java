@@ -0,0 +1,395 @@
+package jwna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public final class BiffWorkbook {
+  private static final int DEFAULT_XF = 0x0F;
+  private static final int ROW_BLOCK_SIZE = 32;
+  private static final int ROW_RECORD_SIZE = 20;
+  private static final int LABEL_LENGTH_MAX = 255;
+  private final BiffTemplate mTemplate;
+  private final int[] mSheetIndexes;
+  private final Overlay[] mOverlays;
+  
+
+  private static final class Row {
+    private final byte[] mRecord;
+    private int mCount;
+    private int[] mCols;
+    private byte[][] mCells;
+    private double[] mNumbers;
+    private int[] mXfs;
+    
+
+    private Row(byte[] record, int[] cols, byte[][] cells) {
+      mRecord = record;
+      mCount = cols.length;
+      final int capacity = Math.max(8, mCount);
+      mCols = Arrays.copyOf(cols, capacity);
+      mCells = Arrays.copyOf(cells, capacity);
+      mNumbers = new double[capacity];
+      mXfs = new int[capacity];
+      for(int i = 0; i < mCount; i++) {
+        mXfs[i] = BiffTemplate.getShort(cells[i], 8);
+      }
+    }
+    
+
+    private int getCell(int col, BiffTemplate.Sheet template) {
+      int i = mCount == 0 || col > mCols[mCount - 1]
+       ? -mCount - 1
+       : Arrays.binarySearch(mCols, 0, mCount, col);
+      if(i >= 0) {
+        return i;
+      }
+      i = -i - 1;
+      if(mCount == mCols.length) {
+        final int capacity = mCount*2;
+        mCols = Arrays.copyOf(mCols, capacity);
+        mCells = Arrays.copyOf(mCells, capacity);
+        mNumbers = Arrays.copyOf(mNumbers, capacity);
+        mXfs = Arrays.copyOf(mXfs, capacity);
+      }
+      final int tail = mCount - i;
+      System.arraycopy(mCols, i, mCols, i + 1, tail);
+      System.arraycopy(mCells, i, mCells, i + 1, tail);
+      System.arraycopy(mNumbers, i, mNumbers, i + 1, tail);
+      System.arraycopy(mXfs, i, mXfs, i + 1, tail);
+      mCount++;
+      mCols[i] = col;
+      mCells[i] = null;
+      mXfs[i] = template.getColumnXf(col, DEFAULT_XF);
+      return i;
+    }
+  }
+  
+
+  private static final class Overlay {
+    private final BiffTemplate.Sheet mTemplate;
+    private final TreeMap<Integer, Row> mRows = new TreeMap<>();
+    private int mLastIndex = -1;
+    private Row mLast;
+    
+
+    private Overlay(BiffTemplate.Sheet template) {
+      mTemplate = template;
+    }
+  }
+  
+
+  public BiffWorkbook(BiffTemplate template, String[] sheetNames) {
+    mTemplate = template;
+    mSheetIndexes = new int[sheetNames.length];
+    for(int i = 0; i < sheetNames.length; i++) {
+      mSheetIndexes[i] = template.findSheet(sheetNames[i]);
+    }
+    mOverlays = new Overlay[template.getSheetCount()];
+    for(int i = 0; i < mOverlays.length; i++) {
+      mOverlays[i] = new Overlay(template.getSheet(i));
+    }
+  }
+  
+
+  public void setNumber(int sheet, int row, int col, double value) {
+    final Overlay overlay = getOverlay(sheet);
+    final Row rowObj = getRow(overlay, row);
+    final int i = rowObj.getCell(col, overlay.mTemplate);
+    rowObj.mCells[i] = null;
+    rowObj.mNumbers[i] = value;
+  }
+  
+
+  public boolean setText(int sheet, int row, int col, String value) {
+    if(value.length() > LABEL_LENGTH_MAX) {
+      return false;
+    }
+    final Overlay overlay = getOverlay(sheet);
+    final Row rowObj = getRow(overlay, row);
+    final int i = rowObj.getCell(col, overlay.mTemplate);
+    rowObj.mCells[i] = createLabel(row, col, rowObj.mXfs[i], value);
+    return true;
+  }
+  
+
+  public boolean isEmpty(int sheet, int row, int col) {
+    final Overlay overlay = getOverlay(sheet);
+    final Row rowObj = overlay.mRows.get(row);
+    if(rowObj != null) {
+      final int i = Arrays.binarySearch(rowObj.mCols, 0, rowObj.mCount, col);
+      return i < 0 || isBlank(rowObj.mCells[i]);
+    }
+    final BiffTemplate.Sheet template = overlay.mTemplate;
+    final int r = template.findRow(row);
+    if(r < 0) {
+      return true;
+    }
+    final int i = Arrays.binarySearch(template.mCols[r], col);
+    return i < 0 || isBlank(template.mCells[r][i]);
+  }
+  
+
+  public void write(OutputStream stream) throws IOException {
+    final byte[] globals = mTemplate.getGlobals();
+    final ByteBuf buf = new ByteBuf(globals.length + 0x10000);
+    buf.put(globals);
+    for(int i = 0; i < mOverlays.length; i++) {
+      buf.setInt(mTemplate.getSheetOffsetPos(i), buf.size());
+      writeSheet(buf, mOverlays[i]);
+    }
+
+    mTemplate.getFile().write(stream, buf.array(), buf.size());
+  }
+  
+
+  private Overlay getOverlay(int sheet) {
+    final int index = mSheetIndexes[sheet];
+    if(index < 0) {
+      throw new IllegalArgumentException("Template sheet was not found");
+    }
+    return mOverlays[index];
+  }
+  
+
+  private static Row getRow(Overlay overlay, int row) {
+    if(overlay.mLast != null && overlay.mLastIndex == row) {
+      return overlay.mLast;
+    }
+    Row rowObj = overlay.mRows.get(row);
+    if(rowObj == null) {
+      final BiffTemplate.Sheet template = overlay.mTemplate;
+      final int r = template.findRow(row);
+      rowObj = r < 0
+       ? new Row(null, new int[0], new byte[0][])
+       : new Row(template.mRowRecords[r], template.mCols[r],
+          template.mCells[r]);
+      overlay.mRows.put(row, rowObj);
+    }
+    overlay.mLastIndex = row;
+    overlay.mLast = rowObj;
+    return rowObj;
+  }
+  
+
+  private static void writeSheet(ByteBuf buf, Overlay overlay) {
+    final BiffTemplate.Sheet template = overlay.mTemplate;
+    final int start = buf.size();
+    if(template.mDimensionsPos < 0) {
+      buf.put(template.mHead);
+      return;
+    }
+
+    final int[] rows = mergeRows(template.mRows, overlay.mRows);
+    final int blocks = (rows.length + ROW_BLOCK_SIZE - 1)/ROW_BLOCK_SIZE;
+    final byte[] head = template.mHead;
+    final int indexSize = template.mIndexPos < 0 ? 0 : 20 + 4*blocks;
+    final int indexPos = start + template.mIndexPos;
+    if(template.mIndexPos < 0) {
+      buf.put(head);
+    }
+    else {
+      buf.put(head, 0, template.mIndexPos);
+      buf.putShort(BiffTemplate.SID_INDEX);
+      buf.putShort(indexSize - 4);
+      buf.skip(indexSize - 4);
+      buf.put(head, template.mIndexPos, head.length - template.mIndexPos);
+    }
+    final int dimensionsPos = start + shift(template.mDimensionsPos,
+     template.mIndexPos, indexSize);
+
+    int firstCol = Integer.MAX_VALUE;
+    int lastCol = -1;
+    final int[] dbCells = new int[blocks];
+    final int[] cellOffsets = new int[ROW_BLOCK_SIZE];
+    for(int b = 0; b < blocks; b++) {
+      final int from = b*ROW_BLOCK_SIZE;
+      final int to = Math.min(rows.length, from + ROW_BLOCK_SIZE);
+      final int blockStart = buf.size();
+      for(int r = from; r < to; r++) {
+        final int row = rows[r];
+        final Row rowObj = overlay.mRows.get(row);
+        if(rowObj == null) {
+          final int t = template.findRow(row);
+          if(template.mRowRecords[t] != null) {
+            buf.put(template.mRowRecords[t]);
+          }
+          else {
+            writeRowRecord(buf, null, row, template.mCols[t],
+             template.mCols[t].length);
+          }
+        }
+        else {
+          writeRowRecord(buf, rowObj.mRecord, row, rowObj.mCols,
+           rowObj.mCount);
+        }
+      }
+
+      int cellRows = 0;
+      int cellOffset = buf.size() - blockStart - ROW_RECORD_SIZE;
+      for(int r = from; r < to; r++) {
+        final int row = rows[r];
+        final int cellStart = buf.size();
+        final Row rowObj = overlay.mRows.get(row);
+        if(rowObj == null) {
+          final int t = template.findRow(row);
+          final int[] cols = template.mCols[t];
+          for(byte[] cell: template.mCells[t]) {
+            buf.put(cell);
+          }
+          if(cols.length > 0) {
+            firstCol = Math.min(firstCol, cols[0]);
+            lastCol = Math.max(lastCol, cols[cols.length - 1]);
+          }
+        }
+        else {
+          for(int i = 0; i < rowObj.mCount; i++) {
+            if(rowObj.mCells[i] != null) {
+              buf.put(rowObj.mCells[i]);
+            }
+            else {
+              writeNumber(buf, row, rowObj.mCols[i], rowObj.mXfs[i],
+               rowObj.mNumbers[i]);
+            }
+          }
+          if(rowObj.mCount > 0) {
+            firstCol = Math.min(firstCol, rowObj.mCols[0]);
+            lastCol = Math.max(lastCol, rowObj.mCols[rowObj.mCount - 1]);
+          }
+        }
+        if(buf.size() > cellStart) {
+          cellOffsets[cellRows++] = cellOffset;
+          cellOffset = buf.size() - cellStart;
+        }
+      }
+
+      dbCells[b] = buf.size();
+      buf.putShort(BiffTemplate.SID_DBCELL);
+      buf.putShort(4 + 2*cellRows);
+      buf.putInt(dbCells[b] - blockStart);
+      for(int i = 0; i < cellRows; i++) {
+        buf.putShort(cellOffsets[i]);
+      }
+    }
+    buf.put(template.mTail);
+
+    if(rows.length > 0) {
+      buf.setInt(dimensionsPos + 4, rows[0]);
+      buf.setInt(dimensionsPos + 8, rows[rows.length - 1] + 1);
+      buf.setShort(dimensionsPos + 12, lastCol < 0 ? 0 : firstCol);
+      buf.setShort(dimensionsPos + 14, lastCol + 1);
+    }
+    if(indexSize > 0) {
+      buf.setInt(indexPos + 4, 0);
+      buf.setInt(indexPos + 8, rows.length == 0 ? 0 : rows[0]);
+      buf.setInt(indexPos + 12,
+       rows.length == 0 ? 0 : rows[rows.length - 1] + 1);
+      buf.setInt(indexPos + 16, template.mDefColWidthPos < 0
+       ? 0
+       : start + shift(template.mDefColWidthPos, template.mIndexPos,
+          indexSize));
+      for(int b = 0; b < blocks; b++) {
+        buf.setInt(indexPos + 20 + 4*b, dbCells[b]);
+      }
+    }
+  }
+  
+
+  private static int shift(int pos, int indexPos, int indexSize) {
+    return indexPos >= 0 && pos >= indexPos ? pos + indexSize : pos;
+  }
+  
+
+  private static int[] mergeRows(int[] templateRows,
+     TreeMap<Integer, Row> overlayRows) {
+    final int[] rows = new int[templateRows.length + overlayRows.size()];
+    int n = 0;
+    int t = 0;
+    for(Integer row: overlayRows.keySet()) {
+      while(t < templateRows.length && templateRows[t] < row) {
+        rows[n++] = templateRows[t++];
+      }
+      if(t < templateRows.length && templateRows[t] == row) {
+        t++;
+      }
+      rows[n++] = row;
+    }
+    while(t < templateRows.length) {
+      rows[n++] = templateRows[t++];
+    }
+    return Arrays.copyOf(rows, n);
+  }
+  
+
+  private static void writeRowRecord(ByteBuf buf, byte[] record, int row,
+     int[] cols, int count) {
+    final int pos = buf.size();
+    if(record != null) {
+      buf.put(record);
+    }
+    else {
+      buf.putShort(BiffTemplate.SID_ROW);
+      buf.putShort(ROW_RECORD_SIZE - 4);
+      buf.putShort(row);
+      buf.putShort(0);
+      buf.putShort(0);
+      buf.putShort(0xFF);
+      buf.putShort(0);
+      buf.putShort(0);
+      buf.putShort(0x100);
+      buf.putShort(DEFAULT_XF);
+    }
+    if(count > 0) {
+      buf.setShort(pos + 6, cols[0]);
+      buf.setShort(pos + 8, cols[count - 1] + 1);
+    }
+  }
+  
+
+  private static void writeNumber(ByteBuf buf, int row, int col, int xf,
+     double value) {
+    buf.putShort(BiffTemplate.SID_NUMBER);
+    buf.putShort(14);
+    buf.putShort(row);
+    buf.putShort(col);
+    buf.putShort(xf);
+    buf.putLong(Double.doubleToLongBits(value));
+  }
+  
+
+  private static byte[] createLabel(int row, int col, int xf, String value) {
+    final int cch = value.length();
+    boolean wide = false;
+    for(int i = 0; i < cch; i++) {
+      if(value.charAt(i) > 0xFF) {
+        wide = true;
+        break;
+      }
+    }
+    final int len = 9 + (wide ? 2*cch : cch);
+    final ByteBuf buf = new ByteBuf(4 + len);
+    buf.putShort(BiffTemplate.SID_LABEL);
+    buf.putShort(len);
+    buf.putShort(row);
+    buf.putShort(col);
+    buf.putShort(xf);
+    buf.putShort(cch);
+    buf.putByte(wide ? 1 : 0);
+    for(int i = 0; i < cch; i++) {
+      if(wide) {
+        buf.putShort(value.charAt(i));
+      }
+      else {
+        buf.putByte(value.charAt(i));
+      }
+    }
+    return buf.toByteArray();
+  }
+  
+
+  private static boolean isBlank(byte[] cell) {
+    return cell != null
+     && BiffTemplate.getShort(cell, 0) == BiffTemplate.SID_BLANK;
+  }
+}
@@ -0,0 +1,115 @@
+package jwna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+final class ByteBuf {
+  private byte[] mData;
+  private int mSize;
+
+
+  ByteBuf(int capacity) {
+    mData = new byte[Math.max(16, capacity)];
+  }
+
+
+  int size() {
+    return mSize;
+  }
+
+
+  byte[] array() {
+    return mData;
+  }
+
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(mData, mSize);
+  }
+
+
+  void put(byte[] data, int offset, int length) {
+    ensure(length);
+    System.arraycopy(data, offset, mData, mSize, length);
+    mSize += length;
+  }
+
+
+  void put(byte[] data) {
+    put(data, 0, data.length);
+  }
+
+
+  void putByte(int value) {
+    ensure(1);
+    mData[mSize++] = (byte)value;
+  }
+
+
+  void putShort(int value) {
+    ensure(2);
+    mData[mSize++] = (byte)value;
+    mData[mSize++] = (byte)(value >>> 8);
+  }
+
+
+  void putInt(int value) {
+    ensure(4);
+    setInt(mSize, value);
+    mSize += 4;
+  }
+
+
+  void putLong(long value) {
+    putInt((int)value);
+    putInt((int)(value >>> 32));
+  }
+
+
+  void setShort(int pos, int value) {
+    mData[pos] = (byte)value;
+    mData[pos + 1] = (byte)(value >>> 8);
+  }
+
+
+  void setInt(int pos, int value) {
+    setShort(pos, value);
+    setShort(pos + 2, value >>> 16);
+  }
+
+
+  void writeTo(OutputStream stream) throws IOException {
+    stream.write(mData, 0, mSize);
+  }
+  
+
+  OutputStream asOutputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {
+        putByte(b);
+      }
+      
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        put(b, off, len);
+      }
+    };
+  }
+  
+
+  void skip(int length) {
+    ensure(length);
+    mSize += length;
+  }
+
+
+  private void ensure(int length) {
+    if(mSize + length > mData.length) {
+      mData = Arrays.copyOf(mData,
+       Math.max(mSize + length, mData.length*2));
+    }
+  }
+}
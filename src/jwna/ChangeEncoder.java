@@ -0,0 +1,67 @@
+package jwna;
+
+import java.util.Arrays;
+
+public final class ChangeEncoder {
+  public static final double DEFAULT_TOLERANCE = 0.001;
+  private double mTolerance;
+  private double mInitial;
+  private double[] mOffsets = new double[16];
+  private double[] mValues = new double[16];
+  private int mSize;
+  
+
+  public ChangeEncoder(double tolerance) {
+    mTolerance = tolerance;
+  }
+  
+
+  public void setTolerance(double tolerance) {
+    mTolerance = tolerance;
+  }
+  
+
+  public int encode(ParamColumn param, int samples, int step,
+     ParamConverter converter) {
+    mSize = 0;
+    mInitial = 0.0;
+    double last = 0.0;
+    for(int i = 0; i < samples; i++) {
+      final double v = param.convert(i*step, converter);
+      if(i == 0) {
+        mInitial = v;
+        last = v;
+      }
+      else if(Math.abs(v - last) > mTolerance) {
+        if(mSize == mValues.length) {
+          mOffsets = Arrays.copyOf(mOffsets, mSize*2);
+          mValues = Arrays.copyOf(mValues, mSize*2);
+        }
+        mOffsets[mSize] = 2*i*step;
+        mValues[mSize++] = v;
+        last = v;
+      }
+    }
+    return mSize;
+  }
+  
+
+  public double getInitial() {
+    return mInitial;
+  }
+  
+
+  public int size() {
+    return mSize;
+  }
+  
+
+  public double getOffset(int index) {
+    return mOffsets[index];
+  }
+  
+
+  public double getValue(int index) {
+    return mValues[index];
+  }
+}
@@ -36,11 +36,41 @@ public class Common {
   public static final String TEST_IP_ADDR_800_O = "TEST_800_O";
   public static final String TEST_IP_ADDR_1000_I = "TEST_1000_I";
   public static final String TEST_IP_ADDR_1000_O = "TEST_1000_O";  
+  public static final String ENGINE_THREAD = "thread";
+  public static final String ENGINE_NIO    = "nio";
+  public static final String FORMAT_XLS  = "xls";
+  public static final String FORMAT_XLSX = "xlsx";
+  public static final String WRITER_POI  = "poi";
+  public static final String WRITER_BIFF = "biff";
+  public static final String CYCLE_FILE_OFF  = "off";
+  public static final String CYCLE_FILE_ON   = "on";
+  public static final String CYCLE_FILE_ONLY = "only";
+  public static final String DURABILITY_NONE     = "none";
+  public static final String DURABILITY_PER_FILE = "per-file";
+  public static final String DURABILITY_BATCHED  = "batched";
   
   private static final HashMap<String, Stan> sStans = new HashMap<>();
   
   private static String sAppPath;
   private static String sArchivePath;
+  private static String sServerEngine = ENGINE_THREAD;
+  private static int sIoThreads = 2;
+  private static int sAckWindow = 16;
+  private static int sMaxPacketSize = 0x4000000;
+  private static int sSaveThreads = 2;
+  private static int sWriteQueueSize = 4;
+  private static String sDurability = DURABILITY_NONE;
+  private static boolean sJournal = false;
+  private static String sJournalPath;
+  private static int sJournalSegmentSize = 0x4000000;
+  private static int sSaveRetries = 3;
+  private static long sSaveQueueMemory = 0x10000000;
+  private static String sSpillPath;
+  private static int sMetricsInterval = 0;
+  private static String sOutputFormat = FORMAT_XLS;
+  private static int sXlsxWindowRows = 1000;
+  private static String sXlsWriter = WRITER_POI;
+  private static String sCycleFile = CYCLE_FILE_OFF;
   
   private static final Logger sLogger = Logger.getLogger(Jwna.class.getName());
   private static LogFileHandler sLogFileHandler;
@@ -109,6 +139,72 @@ public class Common {
       System.exit(0);
     }
     
+    tmpStr = cfg.read("ServerEngine", ENGINE_THREAD).trim().toLowerCase();
+    switch(tmpStr) {
+      case ENGINE_NIO:
+        sServerEngine = ENGINE_NIO;
+        break;
+      default:
+        sServerEngine = ENGINE_THREAD;
+    }
+    sIoThreads = Math.max(1, cfg.read("IoThreads", sIoThreads));
+    sAckWindow = Math.min(0xFFFF, Math.max(1, cfg.read("AckWindow", sAckWindow)));
+    sMaxPacketSize = Math.max(0x10000, cfg.read("MaxPacketSize", sMaxPacketSize));
+    sSaveThreads = Math.max(1, cfg.read("SaveThreads", sSaveThreads));
+    sWriteQueueSize = Math.max(1,
+     cfg.read("WriteQueueSize", sWriteQueueSize));
+    tmpStr = cfg.read("Durability", DURABILITY_NONE).trim().toLowerCase();
+    switch(tmpStr) {
+      case DURABILITY_PER_FILE:
+        sDurability = DURABILITY_PER_FILE;
+        break;
+      case DURABILITY_BATCHED:
+        sDurability = DURABILITY_BATCHED;
+        break;
+      default:
+        sDurability = DURABILITY_NONE;
+    }
+    sJournal = cfg.read("Journal", sJournal);
+    sJournalPath = cfg.read("JournalPath",
+     Paths.get(sAppPath, "Journal").toString());
+    sJournalSegmentSize = Math.max(0x100000,
+     cfg.read("JournalSegmentSize", sJournalSegmentSize));
+    sSaveRetries = Math.max(0, cfg.read("SaveRetries", sSaveRetries));
+    sSaveQueueMemory = 0x100000L*Math.max(1,
+     cfg.read("SaveQueueMemory", (int)(sSaveQueueMemory/0x100000)));
+    sSpillPath = cfg.read("SpillPath",
+     Paths.get(sAppPath, "Spill").toString());
+    sMetricsInterval = Math.max(0,
+     cfg.read("MetricsInterval", sMetricsInterval));
+    tmpStr = cfg.read("OutputFormat", FORMAT_XLS).trim().toLowerCase();
+    switch(tmpStr) {
+      case FORMAT_XLSX:
+        sOutputFormat = FORMAT_XLSX;
+        break;
+      default:
+        sOutputFormat = FORMAT_XLS;
+    }
+    sXlsxWindowRows = Math.max(1, cfg.read("XlsxWindowRows", sXlsxWindowRows));
+    tmpStr = cfg.read("XlsWriter", WRITER_POI).trim().toLowerCase();
+    switch(tmpStr) {
+      case WRITER_BIFF:
+        sXlsWriter = WRITER_BIFF;
+        break;
+      default:
+        sXlsWriter = WRITER_POI;
+    }
+    tmpStr = cfg.read("CycleFile", CYCLE_FILE_OFF).trim().toLowerCase();
+    switch(tmpStr) {
+      case CYCLE_FILE_ON:
+        sCycleFile = CYCLE_FILE_ON;
+        break;
+      case CYCLE_FILE_ONLY:
+        sCycleFile = CYCLE_FILE_ONLY;
+        break;
+      default:
+        sCycleFile = CYCLE_FILE_OFF;
+    }
+    
     loadStans();
   }
   
@@ -209,6 +305,96 @@ public class Common {
   }
   
 
+  public static String getServerEngine() {
+    return sServerEngine;
+  }
+  
+
+  public static int getIoThreads() {
+    return sIoThreads;
+  }
+  
+
+  public static int getAckWindow() {
+    return sAckWindow;
+  }
+  
+
+  public static int getMaxPacketSize() {
+    return sMaxPacketSize;
+  }
+  
+
+  public static int getSaveThreads() {
+    return sSaveThreads;
+  }
+  
+
+  public static int getWriteQueueSize() {
+    return sWriteQueueSize;
+  }
+  
+
+  public static String getDurability() {
+    return sDurability;
+  }
+  
+
+  public static boolean getJournal() {
+    return sJournal;
+  }
+  
+
+  public static String getJournalPath() {
+    return sJournalPath;
+  }
+  
+
+  public static int getJournalSegmentSize() {
+    return sJournalSegmentSize;
+  }
+  
+
+  public static int getSaveRetries() {
+    return sSaveRetries;
+  }
+  
+
+  public static long getSaveQueueMemory() {
+    return sSaveQueueMemory;
+  }
+  
+
+  public static String getSpillPath() {
+    return sSpillPath;
+  }
+  
+
+  public static int getMetricsInterval() {
+    return sMetricsInterval;
+  }
+  
+
+  public static String getOutputFormat() {
+    return sOutputFormat;
+  }
+  
+
+  public static int getXlsxWindowRows() {
+    return sXlsxWindowRows;
+  }
+  
+
+  public static String getXlsWriter() {
+    return sXlsWriter;
+  }
+  
+
+  public static String getCycleFile() {
+    return sCycleFile;
+  }
+  
+
   public static Logger getLogger() {
     return sLogger;
   }
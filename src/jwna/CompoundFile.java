@@ -0,0 +1,222 @@
+package jwna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+final class CompoundFile {
+  private static final int FREESECT   = 0xFFFFFFFF;
+  private static final int ENDOFCHAIN = 0xFFFFFFFE;
+  private static final int FATSECT    = 0xFFFFFFFD;
+  private static final int DIFSECT    = 0xFFFFFFFC;
+  private static final int HEADER_DIFAT_SIZE = 109;
+  private static final int DIR_ENTRY_SIZE = 128;
+  private static final int MINI_STREAM_CUTOFF = 0x1000;
+  private static final byte[] SIGNATURE = {
+    (byte)0xD0, (byte)0xCF, 0x11, (byte)0xE0,
+    (byte)0xA1, (byte)0xB1, 0x1A, (byte)0xE1};
+  private final byte[] mFile;
+  private final int mSectorSize;
+  private final int mSectorCount;
+  private final int[] mFat;
+  private final int mEntryPos;
+  private final byte[] mStream;
+  
+
+  CompoundFile(byte[] file, String name) throws IOException {
+    if(file.length < 512
+       || !Arrays.equals(Arrays.copyOf(file, SIGNATURE.length), SIGNATURE)) {
+      throw new IOException("Not a compound file");
+    }
+    mFile = file;
+    mSectorSize = 1 << BiffTemplate.getShort(file, 0x1E);
+    mSectorCount = (file.length + mSectorSize - 1)/mSectorSize - 1;
+
+    final ArrayList<Integer> fatSectors = new ArrayList<>();
+    for(int i = 0; i < HEADER_DIFAT_SIZE; i++) {
+      fatSectors.add(BiffTemplate.getInt(file, 0x4C + 4*i));
+    }
+    final int perSector = mSectorSize/4;
+    int difat = BiffTemplate.getInt(file, 0x44);
+    for(int n = BiffTemplate.getInt(file, 0x48); n > 0; n--) {
+      checkSector(difat);
+      final int pos = getSectorPos(difat);
+      for(int i = 0; i < perSector - 1; i++) {
+        fatSectors.add(BiffTemplate.getInt(file, pos + 4*i));
+      }
+      difat = BiffTemplate.getInt(file, pos + 4*(perSector - 1));
+    }
+    final int fatCount = BiffTemplate.getInt(file, 0x2C);
+    mFat = new int[Math.max(mSectorCount, fatCount*perSector)];
+    Arrays.fill(mFat, FREESECT);
+    for(int i = 0; i < fatCount; i++) {
+      final int sector = fatSectors.get(i);
+      checkSector(sector);
+      final int pos = getSectorPos(sector);
+      for(int j = 0; j < perSector; j++) {
+        mFat[i*perSector + j] = BiffTemplate.getInt(file, pos + 4*j);
+      }
+    }
+
+    int entryPos = -1;
+    for(int sector: getChain(BiffTemplate.getInt(file, 0x30))) {
+      final int pos = getSectorPos(sector);
+      for(int i = 0; i < mSectorSize; i += DIR_ENTRY_SIZE) {
+        final int nameLength = BiffTemplate.getShort(file, pos + i + 0x40);
+        if(file[pos + i + 0x42] == 2 && nameLength > 2
+           && name.equals(new String(file, pos + i, nameLength - 2,
+               StandardCharsets.UTF_16LE))) {
+          entryPos = pos + i;
+        }
+      }
+    }
+    if(entryPos < 0) {
+      throw new IOException(name + " stream was not found");
+    }
+    mEntryPos = entryPos;
+    final int size = BiffTemplate.getInt(file, entryPos + 0x78);
+    if(size < MINI_STREAM_CUTOFF) {
+      throw new IOException(name + " stream is too small");
+    }
+    final ByteBuf stream = new ByteBuf(size);
+    for(int sector: getChain(BiffTemplate.getInt(file, entryPos + 0x74))) {
+      final int pos = getSectorPos(sector);
+      stream.put(file, pos, Math.min(mSectorSize, size - stream.size()));
+    }
+    mStream = stream.toByteArray();
+  }
+  
+
+  byte[] getStream() {
+    return mStream;
+  }
+  
+
+  void write(OutputStream out, byte[] stream, int length) throws IOException {
+    if(length < MINI_STREAM_CUTOFF) {
+      throw new IOException("Stream is too small");
+    }
+    final int perSector = mSectorSize/4;
+    final int streamSectors = (length + mSectorSize - 1)/mSectorSize;
+    int fatSectors = 0;
+    int difatSectors = 0;
+    int total;
+    while(true) {
+      total = mSectorCount + streamSectors + fatSectors + difatSectors;
+      final int needFat = (total + perSector - 1)/perSector;
+      final int needDifat = needFat <= HEADER_DIFAT_SIZE
+       ? 0
+       : (needFat - HEADER_DIFAT_SIZE + perSector - 2)/(perSector - 1);
+      if(needFat == fatSectors && needDifat == difatSectors) {
+        break;
+      }
+      fatSectors = needFat;
+      difatSectors = needDifat;
+    }
+
+    final int[] fat = new int[fatSectors*perSector];
+    Arrays.fill(fat, FREESECT);
+    System.arraycopy(mFat, 0, fat, 0, mSectorCount);
+    for(int i = 0; i < mSectorCount; i++) {
+      if(fat[i] == FATSECT || fat[i] == DIFSECT) {
+        fat[i] = FREESECT;
+      }
+    }
+    for(int sector: getChain(BiffTemplate.getInt(mFile, mEntryPos + 0x74))) {
+      fat[sector] = FREESECT;
+    }
+    final int streamStart = mSectorCount;
+    for(int i = 0; i < streamSectors; i++) {
+      fat[streamStart + i] = i + 1 < streamSectors
+       ? streamStart + i + 1
+       : ENDOFCHAIN;
+    }
+    final int fatStart = streamStart + streamSectors;
+    for(int i = 0; i < fatSectors; i++) {
+      fat[fatStart + i] = FATSECT;
+    }
+    final int difatStart = fatStart + fatSectors;
+    for(int i = 0; i < difatSectors; i++) {
+      fat[difatStart + i] = DIFSECT;
+    }
+
+    final byte[] header = Arrays.copyOf(mFile, 512);
+    setInt(header, 0x2C, fatSectors);
+    setInt(header, 0x44, difatSectors == 0 ? ENDOFCHAIN : difatStart);
+    setInt(header, 0x48, difatSectors);
+    for(int i = 0; i < HEADER_DIFAT_SIZE; i++) {
+      setInt(header, 0x4C + 4*i, i < fatSectors ? fatStart + i : FREESECT);
+    }
+    out.write(header);
+    out.write(mFile, header.length, mEntryPos + 0x74 - header.length);
+    final byte[] entry = new byte[8];
+    setInt(entry, 0, streamStart);
+    setInt(entry, 4, length);
+    out.write(entry);
+    final int rest = mEntryPos + 0x7C;
+    out.write(mFile, rest, Math.min(mFile.length, getSectorPos(mSectorCount))
+     - rest);
+    for(int i = mFile.length; i < getSectorPos(mSectorCount); i++) {
+      out.write(0);
+    }
+
+    out.write(stream, 0, length);
+    out.write(new byte[streamSectors*mSectorSize - length]);
+
+    final byte[] sector = new byte[mSectorSize];
+    for(int i = 0; i < fatSectors; i++) {
+      for(int j = 0; j < perSector; j++) {
+        setInt(sector, 4*j, fat[i*perSector + j]);
+      }
+      out.write(sector);
+    }
+    int next = HEADER_DIFAT_SIZE;
+    for(int i = 0; i < difatSectors; i++) {
+      for(int j = 0; j < perSector - 1; j++, next++) {
+        setInt(sector, 4*j, next < fatSectors ? fatStart + next : FREESECT);
+      }
+      setInt(sector, 4*(perSector - 1),
+       i + 1 < difatSectors ? difatStart + i + 1 : ENDOFCHAIN);
+      out.write(sector);
+    }
+  }
+  
+
+  private int[] getChain(int start) throws IOException {
+    int[] chain = new int[16];
+    int count = 0;
+    for(int sector = start; sector != ENDOFCHAIN; sector = mFat[sector]) {
+      checkSector(sector);
+      if(count == mSectorCount) {
+        throw new IOException("Loop in compound file chain");
+      }
+      if(count == chain.length) {
+        chain = Arrays.copyOf(chain, count*2);
+      }
+      chain[count++] = sector;
+    }
+    return Arrays.copyOf(chain, count);
+  }
+  
+
+  private int getSectorPos(int sector) {
+    return (sector + 1)*mSectorSize;
+  }
+  
+
+  private void checkSector(int sector) throws IOException {
+    if(sector < 0 || sector >= mSectorCount) {
+      throw new IOException("Bad sector in compound file");
+    }
+  }
+  
+
+  private static void setInt(byte[] data, int pos, int value) {
+    data[pos] = (byte)value;
+    data[pos + 1] = (byte)(value >>> 8);
+    data[pos + 2] = (byte)(value >>> 16);
+    data[pos + 3] = (byte)(value >>> 24);
+  }
+}
@@ -0,0 +1,261 @@
+package jwna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public final class CycleFile {
+  public static final String EXTENSION = ".jwc";
+  public static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x434E574A;
+  private static final int HEADER_SIZE = 24;
+  private final ByteBuffer mBuffer;
+  private final int mVersion;
+  private final int mStanSize;
+  private final int mStanNumber;
+  private final String mStanType;
+  private final String mPipeNumber;
+  private final String mPipeThickness;
+  private final LocalDateTime mDate;
+  private final String mData;
+  private final List<String> mColumnNames;
+  private final HashMap<String, Integer> mColumnIndexes = new HashMap<>();
+  private final int[] mSampleCounts;
+  private final int[] mOffsets;
+  
+
+  private CycleFile(ByteBuffer buffer) throws IOException {
+    mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if(mBuffer.limit() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a cycle file");
+    }
+    if(mBuffer.getShort(4) != FORMAT_VERSION) {
+      throw new IOException("Unsupported cycle file version");
+    }
+    mVersion = mBuffer.getInt(8);
+    mStanSize = mBuffer.getInt(12);
+    mStanNumber = mBuffer.getInt(16);
+    final int columnCount = mBuffer.getInt(20);
+    mBuffer.position(HEADER_SIZE);
+    mStanType = readString(mBuffer);
+    mPipeNumber = readString(mBuffer);
+    mPipeThickness = readString(mBuffer);
+    final String date = readString(mBuffer);
+    mDate = date == null ? null : LocalDateTime.parse(date);
+    mData = readString(mBuffer);
+
+    final ArrayList<String> names = new ArrayList<>(columnCount);
+    mSampleCounts = new int[columnCount];
+    mOffsets = new int[columnCount];
+    for(int i = 0; i < columnCount; i++) {
+      final String name = readString(mBuffer);
+      names.add(name);
+      mColumnIndexes.put(name, i);
+      final int samples = mBuffer.getInt();
+      final long offset = mBuffer.getLong();
+      if(samples < 0 || offset < HEADER_SIZE
+         || offset + 3L*samples > mBuffer.limit()) {
+        throw new IOException("Bad column in cycle file");
+      }
+      mSampleCounts[i] = samples;
+      mOffsets[i] = (int)offset;
+    }
+    mColumnNames = Collections.unmodifiableList(names);
+  }
+  
+
+  public static CycleFile open(Path path) throws IOException {
+    try(FileChannel channel = FileChannel.open(path,
+         StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer =
+       channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new CycleFile(buffer);
+    }
+  }
+  
+
+  public static void write(WeldingData wd, Path path) throws IOException {
+    final ByteBuf buf = toBytes(wd);
+    try(OutputStream stream = Files.newOutputStream(path,
+         StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      buf.writeTo(stream);
+    }
+  }
+  
+
+  static ByteBuf toBytes(WeldingData wd) {
+    final List<ParamColumn> params = wd.getParams();
+    final String data = wd.getData();
+    int size = 0x1000 + (data == null ? 0 : 3*data.length());
+    for(ParamColumn param: params) {
+      size += 72 + 3*param.size();
+    }
+    final ByteBuf buf = new ByteBuf(size);
+    buf.putInt(MAGIC);
+    buf.putShort(FORMAT_VERSION);
+    buf.putShort(0);
+    buf.putInt(wd.getVersion() == null ? -1 : wd.getVersion());
+    buf.putInt(wd.getStanSize() == null ? -1 : wd.getStanSize());
+    buf.putInt(wd.getStanNumber() == null ? -1 : wd.getStanNumber());
+    buf.putInt(params.size());
+    putString(buf, wd.getStanType());
+    putString(buf, wd.getPipeNumber());
+    putString(buf, wd.getPipeThickness());
+    putString(buf, wd.getDate() == null ? null : wd.getDate().toString());
+    putString(buf, data);
+
+    final int[] offsetPositions = new int[params.size()];
+    int i = 0;
+    for(ParamColumn param: params) {
+      putString(buf, param.getName());
+      buf.putInt(param.size());
+      offsetPositions[i++] = buf.size();
+      buf.putLong(0);
+    }
+
+    i = 0;
+    for(ParamColumn param: params) {
+      buf.skip(-buf.size() & 7);
+      final int samples = param.size();
+      buf.setInt(offsetPositions[i], buf.size());
+      buf.setInt(offsetPositions[i++] + 4, 0);
+      for(int j = 0; j < samples; j++) {
+        buf.putShort(param.getArg0(j));
+      }
+      for(int j = 0; j < samples; j++) {
+        buf.putByte(param.getArg1(j));
+      }
+    }
+    return buf;
+  }
+  
+
+  public int getVersion() {
+    return mVersion;
+  }
+  
+
+  public int getStanSize() {
+    return mStanSize;
+  }
+  
+
+  public int getStanNumber() {
+    return mStanNumber;
+  }
+  
+
+  public String getStanType() {
+    return mStanType;
+  }
+  
+
+  public String getPipeNumber() {
+    return mPipeNumber;
+  }
+  
+
+  public String getPipeThickness() {
+    return mPipeThickness;
+  }
+  
+
+  public LocalDateTime getDate() {
+    return mDate;
+  }
+  
+
+  public String getData() {
+    return mData;
+  }
+  
+
+  public List<String> getColumnNames() {
+    return mColumnNames;
+  }
+  
+
+  public int getSampleCount(String column) {
+    final Integer index = mColumnIndexes.get(column);
+    return index == null ? -1 : mSampleCounts[index];
+  }
+  
+
+  public int getArg0(String column, int sample) {
+    final int index = getColumnIndex(column, sample);
+    return mBuffer.getShort(mOffsets[index] + 2*sample) & 0xFFFF;
+  }
+  
+
+  public int getArg1(String column, int sample) {
+    final int index = getColumnIndex(column, sample);
+    return mBuffer.get(mOffsets[index] + 2*mSampleCounts[index] + sample)
+     & 0xFF;
+  }
+  
+
+  public double[] readColumn(String column, ParamConverter converter) {
+    final Integer index = mColumnIndexes.get(column);
+    if(index == null) {
+      return null;
+    }
+    final int samples = mSampleCounts[index];
+    final int arg0 = mOffsets[index];
+    final int arg1 = arg0 + 2*samples;
+    final double[] values = new double[samples];
+    for(int i = 0; i < samples; i++) {
+      values[i] = converter.convert(mBuffer.getShort(arg0 + 2*i) & 0xFFFF,
+       mBuffer.get(arg1 + i) & 0xFF);
+    }
+    return values;
+  }
+  
+
+  private int getColumnIndex(String column, int sample) {
+    final Integer index = mColumnIndexes.get(column);
+    if(index == null) {
+      throw new IllegalArgumentException("Column was not found: " + column);
+    }
+    if(sample < 0 || sample >= mSampleCounts[index]) {
+      throw new IndexOutOfBoundsException("Sample: " + sample);
+    }
+    return index;
+  }
+  
+
+  private static void putString(ByteBuf buf, String value) {
+    if(value == null) {
+      buf.putInt(-1);
+      return;
+    }
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buf.putInt(bytes.length);
+    buf.put(bytes);
+  }
+  
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    final int length = buffer.getInt();
+    if(length < 0) {
+      return null;
+    }
+    if(length > buffer.remaining()) {
+      throw new IOException("Bad string in cycle file");
+    }
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -1,244 +1,346 @@
 package jwna;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
+import java.util.logging.Level;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 public class DataSaver {
+  private static final int XLS_DATA_ROWS_MAX = 0xFFFF;
+  private static final int XLSX_DATA_ROWS_MAX = 0xFFFFF;
+  private static final int DATA_BLOCK_ROWS = 0x1000;
+  static final String TEMP_SUFFIX = ".tmp";
+  private static final String[] TEMPLATE_FILE_NAMES = {
+    "template-i",
+    "template-i-800",
+    "template-o",
+    "template-o-800"};
+  private static final String[] SHEET_NAMES = {
+    "Data",
+    "Setup",
+    "Reg",
+    "Changes",
+    "Params"};
+  private static final int CHANGES_ROW = 5;
   private final String mSrcFilePath; 
-  private final Pattern mCellNamePattern =
-   Pattern.compile("([A-Za-z]+)([0-9]+)");
+  private final boolean mXlsx;
+  private final boolean mBiff;
+  private final String mExt;
+  private final boolean mWorkbook;
+  private final boolean mCycleFile;
+  private final ChangeEncoder mChangeEncoder =
+   new ChangeEncoder(ChangeEncoder.DEFAULT_TOLERANCE);
+  private double[][] mColumns = new double[0][];
+  private int[] mColumnIndexes = new int[0];
+  private int mColumnCount;
+  private boolean mTextTooLong;
+  
+
+  public static final class Output {
+    private final WeldingData mWd;
+    private final String mDstFilePath;
+    private final String mDstFileBase;
+    private final boolean mNumbered;
+    private final ArrayList<String> mExts = new ArrayList<>(2);
+    private final ArrayList<ByteBuf> mContents = new ArrayList<>(2);
+    
+
+    private Output(WeldingData wd, String dstFilePath, String dstFileBase,
+       boolean numbered) {
+      mWd = wd;
+      mDstFilePath = dstFilePath;
+      mDstFileBase = dstFileBase;
+      mNumbered = numbered;
+    }
+    
+
+    private void add(String ext, ByteBuf content) {
+      mExts.add(ext);
+      mContents.add(content);
+    }
+  }
   
 
   public DataSaver() {
     mSrcFilePath = Common.getAppPath();
+    mXlsx = Common.FORMAT_XLSX.equals(Common.getOutputFormat());
+    mExt = "." + Common.getOutputFormat();
+    mBiff = !mXlsx && Common.WRITER_BIFF.equals(Common.getXlsWriter());
+    mWorkbook = !Common.CYCLE_FILE_ONLY.equals(Common.getCycleFile());
+    mCycleFile = !Common.CYCLE_FILE_OFF.equals(Common.getCycleFile());
+    if(!mWorkbook) {
+      return;
+    }
+    for(String fileName: TEMPLATE_FILE_NAMES) {
+      final Path path = Paths.get(mSrcFilePath, fileName + mExt);
+      if(mBiff) {
+        TemplateCache.getInstance().preloadBiff(path);
+      }
+      else {
+        TemplateCache.getInstance().preload(path);
+      }
+    }
   }
   
 
   public void save(WeldingData wd) throws IOException {
+    final Output output = render(wd);
+    if(output != null) {
+      final boolean sync =
+       !Common.DURABILITY_NONE.equals(Common.getDurability());
+      publish(writeTemp(output, sync), sync);
+    }
+  }
+  
+
+  public Output render(WeldingData wd) throws IOException {
     final LocalDateTime startTime = LocalDateTime.now();
     wd.setDate(startTime);
     Integer version = wd.getVersion();
     switch(version) {
       case 0x100:
-        save1x00(wd);
-        break;
+        return render1x00(wd);
       case 0x110:
-        save1x10(wd);
+      case 0x120:
+      case 0x130:
+      case 0x140:
+        return render1x10(wd);
+      default:
+        return null;
+    }
+  }
+
+
+  public static List<Path> writeTemp(Output output, boolean force)
+     throws IOException {
+    final String dst_path = output.mDstFilePath;
+    final String dst_fn_base = ArchiveIndex.getInstance().allocate(
+     Paths.get(dst_path), output.mDstFileBase, output.mExts,
+     output.mNumbered);
+
+    final ArrayList<Path> files = new ArrayList<>(output.mExts.size());
+    try {
+      for(int i = 0; i < output.mExts.size(); i++) {
+        final Path file = Paths.get(dst_path,
+         dst_fn_base + output.mExts.get(i) + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(file,
+              StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+          files.add(file);
+          output.mContents.get(i).writeTo(Channels.newOutputStream(channel));
+          if(force) {
+            channel.force(true);
+          }
+        }
+      }
+    }
+    catch(IOException ex) {
+      for(Path file: files) {
+        Files.deleteIfExists(file);
+      }
+      for(String ext: output.mExts) {
+        ArchiveIndex.getInstance().release(Paths.get(dst_path),
+         dst_fn_base + ext);
+      }
+      throw ex;
+    }
+    output.mWd.setDstFilePath(dst_path);
+    output.mWd.setDstFileName(dst_fn_base + output.mExts.get(0));
+    return files;
+  }
+  
+
+  public static void forceFiles(List<Path> files) throws IOException {
+    for(Path file: files) {
+      try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
     }
   }
+  
+
+  public static void publish(List<Path> files, boolean sync)
+     throws IOException {
+    final ArrayList<Path> published = new ArrayList<>(files.size());
+    try {
+      for(Path file: files) {
+        Path target = getTarget(file);
+        while(!moveNew(file, target)) {
+          target = reallocate(target);
+        }
+        published.add(target);
+      }
+    }
+    catch(IOException ex) {
+      discard(files);
+      discard(published);
+      throw ex;
+    }
+    if(sync) {
+      forceDirectories(files);
+    }
+  }
+  
+
+  public static void forceDirectories(List<Path> files) {
+    final LinkedHashSet<Path> dirs = new LinkedHashSet<>();
+    for(Path file: files) {
+      dirs.add(file.getParent());
+    }
+    for(Path dir: dirs) {
+      forceDirectory(dir);
+    }
+  }
+  
+
+  public static void discard(List<Path> files) {
+    for(Path file: files) {
+      try {
+        Files.deleteIfExists(file);
+      }
+      catch(IOException ex) {
+        Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+      }
+      ArchiveIndex.getInstance().release(file.getParent(),
+       getTarget(file).getFileName().toString());
+    }
+  }
+  
+
+  private static Path getTarget(Path file) {
+    final String name = file.getFileName().toString();
+    return name.endsWith(TEMP_SUFFIX)
+     ? file.resolveSibling(
+        name.substring(0, name.length() - TEMP_SUFFIX.length()))
+     : file;
+  }
+  
+
+  private static boolean moveNew(Path file, Path target) throws IOException {
+    try {
+      Files.createLink(target, file);
+    }
+    catch(FileAlreadyExistsException ex) {
+      return false;
+    }
+    catch(UnsupportedOperationException | FileSystemException ex) {
+      try {
+        Files.move(file, target);
+      }
+      catch(FileAlreadyExistsException ex2) {
+        return false;
+      }
+      return true;
+    }
+    try {
+      Files.delete(file);
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+    }
+    return true;
+  }
+  
+
+  private static Path reallocate(Path target) throws IOException {
+    final String name = target.getFileName().toString();
+    final int dot = name.lastIndexOf('.');
+    final String ext = dot < 0 ? "" : name.substring(dot);
+    final String base = ArchiveIndex.getInstance().allocate(
+     target.getParent(), name.substring(0, name.length() - ext.length()),
+     Collections.singletonList(ext), true);
+    Common.getLogger().log(Level.SEVERE, "File exists: {0}", target);
+    return target.resolveSibling(base + ext);
+  }
+  
 
+  private static void forceDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir,
+          StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.FINE, ex.getMessage(), ex);
+    }
+  }
+  
 
-  private void save1x10(WeldingData wd) throws IOException {
-    save1x00(wd);
+  private Output render1x10(WeldingData wd) throws IOException {
+    return render1x00(wd);
   }
   
 
-  private void save1x00(WeldingData wd) throws IOException {
+  private Output render1x00(WeldingData wd) throws IOException {
     final Common.Stan stan = Common.getStan(wd.getIpAddr());
     if(stan == null) {
-        return;
+        return null;
     }
     wd.setStanSize(stan.getSize());
     wd.setStanNumber(stan.getNumber());
     wd.setStanType(stan.getType());
     wd.setStanName(wd.getStanType() + Integer.toString(wd.getStanNumber()));
 
-    String[] path_pair = getSrcFileName(wd);
-    final String src_path = path_pair[0];
-    final String src_fn   = path_pair[1];
-    path_pair = getDstFileName(wd);
-    final String dst_path = path_pair[0];
-    final String dst_fn   = path_pair[1];
-    if(!Files.isDirectory(Paths.get(dst_path)))
-      Files.createDirectories(Paths.get(dst_path));
-    Files.copy(Paths.get(src_path, src_fn), Paths.get(dst_path, dst_fn));
-    wd.setDstFilePath(dst_path);
-    wd.setDstFileName(dst_fn);
-
-    openWb(wd, Paths.get(dst_path, dst_fn).toString());
-    wd.setRows(getRowsMax(wd));
+    final Output output = new Output(wd, getDstFilePath(wd),
+     getDstFileBase(wd), wd.getVersion() != 0x100);
+    if(mWorkbook) {
+      output.add(mExt, renderWb(wd));
+    }
+    if(mCycleFile) {
+      output.add(CycleFile.EXTENSION, CycleFile.toBytes(wd));
+    }
+    return output;
+  }
+  
 
-    final ParamConverter intToEx = (value, flags) -> {
-      if(value == null)
-        return 0.0;
-      return value;
-    };
-
-    final ParamConverter vToEx = intToEx;
-            
-    final ParamConverter iToEx = intToEx;
-            
-    final ParamConverter valuesTicksToEx = (value, flags) -> {
-      if(value != null)
-        return (value*0x100 + flags)/1000.0;
-      return 0.0;
-    };            
-            
-    final ParamConverter vwmToEx = intToEx;
-            
-    final ParamConverter headPosToEx = (value, flags) -> {
-      if(value != null) {
-        int v = value.intValue();
-        if((v & 0x8000) != 0)
-          v -= 65536;
-        return v/10.0;  
-      }                  
-      return intToEx.convert(value, flags);
-    };
-
-    final ParamConverter headPosDiffToEx = intToEx;
-            
-    final ParamConverter edgeSizeToEx = (value, flags) -> {
-      if(value != null)
-        return value/10.0;
-      return 0.0;
-    };
-            
-    final ParamConverter caretIdToEx = (value, flags) -> {
-      if(value != null)
-        return intToEx.convert(value/100.0, flags);
-      return intToEx.convert(value, flags);
-    };
-            
-    final ParamConverter wireIdToEx = (value, flags) -> {
-      if(value != null)
-        return value/100.0;
-      return 0.0;
-    };
-            
-    final ParamConverter autoVertToEx = (value, flags) -> {
-      if(value != null)
-        return value + 1.0;
-      return 0.0;
-    };
-            
-    final ParamConverter autoHorzToEx = (value, flags) -> {
-      if(value != null)
-        return value + 3;
-      return 0.0;
-    };
-            
-    final ParamConverter pipeDetectionToEx = (value, flags) -> {
-      if(value != null)
-        return value + 5;
-      return 0.0;
-    };
-
-    final ParamConverter pipeSpeedToEx = intToEx;
-
-    final ParamConverter wireVelocityToExp = intToEx;
-
-    final ParamConverter currentFvToExp = intToEx;
-
-    final ParamConverter downForceToEx = intToEx;
-
-    final ParamConverter wireSpaceToEx = intToEx;
-
-    final ParamConverter alphaToEx = intToEx;
-
-    final ParamConverter weldingHeadHorzCenterToEx = intToEx;
-
-    final ParamConverter fluxValveToEx = intToEx;
-
-    final ParamConverter fluxAvailableToEx = intToEx;
-
-    final ParamConverter fluxPressureToEx = intToEx;
-
-    final ParamConverter pipeRotateLeftCmdToEx = intToEx;
-
-    final ParamConverter pipeRotateRightCmdToEx = intToEx;
-
-    final ParamConverter controlPositionToEx = intToEx;
-    
-    final FieldExportable export_field = (col, field, converter) -> {      
-      exportField(wd, col, field, converter);
-    };
-    
-    final FieldsExportable export_fields = (col, field_base, converter) -> {      
-      exportFields(wd, col, genFields(wd, field_base), converter);
-    };
+  private ByteBuf renderWb(WeldingData wd) throws IOException {
+    if(mBiff) {
+      mTextTooLong = false;
+      final ByteBuf buf = renderWb(wd, true);
+      if(!mTextTooLong) {
+        return buf;
+      }
+      Common.getLogger().log(Level.FINE,
+       "Text is too long for a BIFF label, the cycle is written through POI");
+      mTextTooLong = false;
+    }
+    return renderWb(wd, false);
+  }
+  
 
-    
-    if(wd.getStanType().equals(Common.STAN_O)) {               
-      exportField_Meter(wd, 1);
-      export_fields.export(2, 2, iToEx);
-      export_fields.export(6, 1, vToEx);
-      export_fields.export(10, 10, vwmToEx);
-      export_fields.export(14, 4, wireIdToEx);
-      exportFields_IdMax(wd, 18, wireIdToEx);
-      export_field.export(19, "5_0", pipeSpeedToEx);
-      export_field.export(20, "6_0", caretIdToEx);
-      export_field.export(21, "24_0", autoVertToEx);
-      export_field.export(22, "25_0", autoHorzToEx);
-      export_field.export(23, "26_0", pipeDetectionToEx);
-      export_field.export(24, "11_0", edgeSizeToEx);
-      export_field.export(25, "12_0", edgeSizeToEx);
-      export_field.export(26, "13_0", edgeSizeToEx);
-      export_field.export(27, "17_0", headPosToEx);
-      export_field.export(28, "27_0", headPosToEx);
-      exportField_ResultGeom(wd, 29, headPosDiffToEx);
-      export_field.export(30, "19_0", headPosToEx);
-      export_field.export(31, "41_0", controlPositionToEx);
-      export_field.export(32, "37_0", pipeRotateLeftCmdToEx);
-      export_field.export(33, "38_0", pipeRotateRightCmdToEx);
-      exportHorzHeadPosition(wd, 34);
-      export_fields.export(36, 3, wireVelocityToExp);
-      export_fields.export(40, 18, currentFvToExp);
-      export_fields.export(44, 22, iToEx);
-      export_fields.export(48, 30, alphaToEx);
-      export_field.export(52, "20_0", pipeSpeedToEx);
-      export_field.export(53, "33_0", weldingHeadHorzCenterToEx);
-      export_field.export(54, "34_0", fluxValveToEx);
-      export_field.export(55, "35_0", fluxAvailableToEx);
-      export_field.export(56, "36_0", fluxPressureToEx);
-      export_field.export(57, "28_0", valuesTicksToEx);
-      export_field.export(58, "49_0", iToEx);
-      export_field.export(59, "50_0", iToEx);
-      export_fields.export(60, 21, vToEx);
-    }
-    else {            
-      exportField_Meter(wd, 1);
-      export_fields.export(2, 2, iToEx);                
-      export_fields.export(5, 1, vToEx);                
-      export_fields.export(8, 10, vwmToEx);                
-      export_fields.export(11, 4, wireIdToEx);                
-      exportFields_IdMax(wd, 14, wireIdToEx);               
-      export_field.export(15, "5_0",   pipeSpeedToEx);
-      export_field.export(16, "6_0",   caretIdToEx);                
-      export_field.export(17, "24_0",  autoVertToEx);
-      export_field.export(18, "19_0", headPosToEx);                
-      export_field.export(19, "14_0", downForceToEx);
-      export_field.export(20, "15_0", downForceToEx);
-      export_field.export(21, "16_0", downForceToEx);
-      export_fields.export(22, 3, wireVelocityToExp);
-      export_fields.export(25, 18, currentFvToExp);
-      export_fields.export(28, 22, iToEx);
-      export_field.export(31, "7_0", wireSpaceToEx);
-      export_fields.export(32, 30, alphaToEx);
-      export_field.export(35, "20_0", pipeSpeedToEx);        
-      export_field.export(36, "28_0", valuesTicksToEx);
-      export_field.export(37, "49_0", iToEx);
-      export_field.export(38, "50_0", iToEx);
-      export_fields.export(39, 21, vToEx);
+  private ByteBuf renderWb(WeldingData wd, boolean biff) throws IOException {
+    final String[] path_pair = getSrcFileName(wd);
+    final String src_path = path_pair[0];
+    final String src_fn   = path_pair[1];
+    openWb(wd, Paths.get(src_path, src_fn), biff);
+    if(mXlsx) {
+      wd.setStep(1);
     }
+    fitStep(wd);
+    wd.setRows(getRowsMax(wd));
 
     exportManualControl(wd);
     exportDateTime(wd);
@@ -252,9 +354,7 @@ public class DataSaver {
     exportPipeDiameter(wd);
     exportRegOptions(wd);              
     exportWeldParams(wd); 
-    exportCurrentFvChange(wd, genFields(wd, 31), wireVelocityToExp);
-    exportSSxFvChange(wd, genFields(wd, 32), wireVelocityToExp);
-    exportPipeVelocityFVChange(wd, "48_0", pipeSpeedToEx);
+    exportChanges(wd);
     exportWelderState(wd, 1);
     exportWelderState(wd, 2);
     exportWelderState(wd, 3);
@@ -263,79 +363,159 @@ public class DataSaver {
     exportWireDiameter(wd, 2);
     exportWireDiameter(wd, 3);
     
-    closeWb(wd);
+    try {
+      exportData(wd);
+      return mTextTooLong ? null : writeWb(wd);
+    }
+    finally {
+      closeWb(wd);
+    }
+  }
+  
+
+  private void exportData(WeldingData wd) throws IOException {
+    if(mXlsx) {
+      final SXSSFWorkbook workbook = new SXSSFWorkbook(
+       (XSSFWorkbook)wd.getWorkbook(), Common.getXlsxWindowRows());
+      wd.setWorkbook(workbook);
+      wd.getSheets()[0] = workbook.getSheet(SHEET_NAMES[0]);
+    }
+
+    final ExportPlan plan = ExportPlan.get(wd.getStanType(), wd.getStanSize());
+    final int planSize = plan.size();
+    final int rows = wd.getRows();
+    for(int from = 0; from < rows; from += DATA_BLOCK_ROWS) {
+      final int count = Math.min(DATA_BLOCK_ROWS, rows - from);
+      for(int i = 0; i < planSize; i++) {
+        final int col = plan.getCol(i);
+        switch(plan.getKind(i)) {
+          case ExportPlan.KIND_METER:
+            exportField_Meter(wd, col, from, count);
+            break;
+          case ExportPlan.KIND_FIELD:
+            exportField(wd, col, plan.getParamKey(i), plan.getConverter(i),
+             from, count);
+            break;
+          case ExportPlan.KIND_ID_MAX:
+            exportFields_IdMax(wd, col, plan.getConverter(i), count);
+            break;
+          case ExportPlan.KIND_RESULT_GEOM:
+            exportField_ResultGeom(wd, col, plan.getConverter(i), from, count);
+            break;
+          case ExportPlan.KIND_HORZ_HEAD:
+            exportHorzHeadPosition(wd, col, count);
+            break;
+        }
+      }
+      writeColumns(wd, 0, 1 + from, count);
+    }
   }
 
 
-  private void openWb(WeldingData wd, String filename) throws IOException {
-    try (FileInputStream stream = new FileInputStream(filename)) {
-      final HSSFWorkbook workbook = new HSSFWorkbook(stream);
+  private void openWb(WeldingData wd, Path path, boolean biff)
+     throws IOException {
+    if(biff) {
+      wd.setBiffWorkbook(new BiffWorkbook(
+       TemplateCache.getInstance().getBiffTemplate(path), SHEET_NAMES));
+      return;
+    }
+    final byte[] template = TemplateCache.getInstance().get(path);
+    try (ByteArrayInputStream stream = new ByteArrayInputStream(template)) {
+      final Workbook workbook = mXlsx
+       ? new XSSFWorkbook(stream)
+       : new HSSFWorkbook(stream);
       wd.setWorkbook(workbook);
-      final String[] sheetNames = {
-        "Data",
-        "Setup",
-        "Reg",
-        "Changes",
-        "Params"};
-      final HSSFSheet[] sheets = new HSSFSheet[sheetNames.length];
+      final Sheet[] sheets = new Sheet[SHEET_NAMES.length];
       for(int i = 0; i < sheets.length; i++) {
-        sheets[i] = workbook.getSheet(sheetNames[i]); 
+        sheets[i] = workbook.getSheet(SHEET_NAMES[i]); 
       }
       wd.setSheets(sheets);
     } 
   }
 
 
-  private void closeWb(WeldingData wd) throws IOException {
-    try(HSSFWorkbook workbook = wd.getWorkbook()) {
-      wd.setWorkbook(null);
-      final File file =
-       Paths.get(wd.getDstFilePath(), wd.getDstFileName()).toFile();
-      workbook.write(file);
+  private ByteBuf writeWb(WeldingData wd) throws IOException {
+    final ByteBuf buf = new ByteBuf(0x100000);
+    try (OutputStream stream = buf.asOutputStream()) {
+      if(wd.getBiffWorkbook() != null) {
+        wd.getBiffWorkbook().write(stream);
+      }
+      else {
+        wd.getWorkbook().write(stream);
+      }
     }
+    return buf;
   }
 
 
-  private HSSFSheet getSheet(WeldingData wd, int index) {
+  private void closeWb(WeldingData wd) throws IOException {
+    final Workbook workbook = wd.getWorkbook();
+    wd.setWorkbook(null);
+    wd.setSheets(null);
+    wd.setBiffWorkbook(null);
+    if(workbook instanceof SXSSFWorkbook) {
+      ((SXSSFWorkbook)workbook).dispose();
+    }
+    if(workbook != null) {
+      workbook.close();
+    }
+  }
+  
+
+  private Sheet getSheet(WeldingData wd, int index) {
     return wd.getSheets()[index];
   }
  
 
   private void setCell(WeldingData wd, int sheet_index, String cell, Object value) {
-    if(value != null && value instanceof String) {
-      conv: {
-        try {
-          value = Integer.parseInt((String)value);
-          break conv;
-        }
-        catch(Exception ex) {          
-        }
-        try {
-          value = Double.parseDouble((String)value);
-          break conv;
-        }
-        catch(Exception ex) {          
-        }
-        try {
-          value = Double.parseDouble(((String)value).replace(',', '.'));
-          break conv;
-        }
-        catch(Exception ex) {          
-        }        
-      }
-    }
-    
     final CellReference cr = new CellReference(cell);
-    Row rowObj = getSheet(wd, sheet_index).getRow(cr.getRow());
-    if(rowObj == null) {
-      rowObj = getSheet(wd, sheet_index).createRow(cr.getRow());
+    setCell(wd, sheet_index, cr.getRow(), cr.getCol(), value);
+  }
+  
+
+  private void setCell(WeldingData wd, int sheet_index, int row, int col,
+     Object value) {
+    if(value instanceof String) {
+      value = DataValue.parse((String)value);
     }
-    Cell cellObj = rowObj.getCell(cr.getCol()); 
-    if(cellObj == null) {
-      cellObj = rowObj.createCell(cr.getCol());
+    
+    final BiffWorkbook biff = wd.getBiffWorkbook();
+    if(biff != null) {
+      if(value == null) {
+        if(!biff.isEmpty(sheet_index, row, col)) {
+          biff.setText(sheet_index, row, col, "");
+        }
+      }
+      else if(value instanceof DataValue && !((DataValue)value).isNumber()) {
+        setText(biff, sheet_index, row, col, ((DataValue)value).getText());
+      }
+      else if(value instanceof DataValue) {
+        biff.setNumber(sheet_index, row, col, ((DataValue)value).getNumber());
+      }
+      else if(value instanceof Number) {
+        biff.setNumber(sheet_index, row, col, ((Number)value).doubleValue());
+      }
+      else {
+        setText(biff, sheet_index, row, col, value.toString());
+      }
+      return;
     }
     if(value == null) {
-      cellObj.setCellValue("");
+      final Cell cellObj = findCell(wd, sheet_index, row, col);
+      if(cellObj != null && !isEmpty(cellObj)) {
+        cellObj.setCellValue("");
+      }
+      return;
+    }
+    final Cell cellObj = getCell(wd, sheet_index, row, col);
+    if(value instanceof DataValue) {
+      final DataValue dataValue = (DataValue)value;
+      if(dataValue.isNumber()) {
+        cellObj.setCellValue(dataValue.getNumber());
+      }
+      else {
+        cellObj.setCellValue(dataValue.getText());
+      }
     }
     else if(value instanceof Integer) {
       cellObj.setCellValue((Integer)value);
@@ -353,6 +533,56 @@ public class DataSaver {
       cellObj.setCellValue(value.toString());
     }
   }              
+  
+
+  private void setText(BiffWorkbook biff, int sheet_index, int row, int col,
+     String value) {
+    if(!biff.setText(sheet_index, row, col, value)) {
+      mTextTooLong = true;
+    }
+  }              
+  
+
+  private void setCell(WeldingData wd, int sheet_index, int row, int col,
+     double value) {
+    final BiffWorkbook biff = wd.getBiffWorkbook();
+    if(biff != null) {
+      biff.setNumber(sheet_index, row, col, value);
+      return;
+    }
+    getCell(wd, sheet_index, row, col).setCellValue(value);
+  }
+  
+
+  private Cell findCell(WeldingData wd, int sheet_index, int row, int col) {
+    final Row rowObj = getSheet(wd, sheet_index).getRow(row);
+    return rowObj == null ? null : rowObj.getCell(col);
+  }
+  
+
+  private Cell getCell(WeldingData wd, int sheet_index, int row, int col) {
+    final Row rowObj = getRow(getSheet(wd, sheet_index), row);
+    final Cell cellObj = rowObj.getCell(col);
+    return cellObj == null ? rowObj.createCell(col) : cellObj;
+  }
+  
+
+  private static Row getRow(Sheet sheet, int row) {
+    final Row rowObj = sheet.getRow(row);
+    return rowObj == null ? sheet.createRow(row) : rowObj;
+  }
+  
+
+  private static boolean isEmpty(Cell cell) {
+    switch(cell.getCellTypeEnum()) {
+      case BLANK:
+        return true;
+      case STRING:
+        return cell.getStringCellValue().isEmpty();
+      default:
+        return false;
+    }
+  }              
     
 
   private String dateToStr(WeldingData wd) {
@@ -363,39 +593,41 @@ public class DataSaver {
   }
 
 
-  private String getDataValue(WeldingData wd, String key) {
-    final int keyLen = key.length();    
-    final String[] lines = wd.getDataLines();
-    for(String line: lines) {
-      if(line.length() >= keyLen) {
-        if(line.substring(0, keyLen).equals(key)) {
-          return line.substring(keyLen);
-        }
-      }
-    }
-    return null;
+  private String getDataText(WeldingData wd, String name) {
+    final DataValue value = wd.getDataValue(name);
+    return value == null ? null : value.getText();
   }              
     
 
-  private int getFieldSize(WeldingData wd, String field) {
-    final Map<String, byte[]> params = wd.getParams();
-    if(params.containsKey(field)) {
-        return params.get(field).length/3/wd.getStep();
+  private int getFieldSize(WeldingData wd, ParamColumn param) {
+    if(param != null) {
+        return param.size()/wd.getStep();
     }
     return 0;
   }
   
 
   private int getRowsMax(WeldingData wd) {
-    final Map<String, byte[]> params = wd.getParams();
     int max = 0;
-    for(Map.Entry<String, byte[]> entry: params.entrySet()) {
-      final int v = getFieldSize(wd, entry.getKey());
+    for(ParamColumn param: wd.getParams()) {
+      final int v = param.size()/wd.getStep();
       if(v > max) 
         max = v;
     }
     return max;
   }
+  
+
+  private void fitStep(WeldingData wd) {
+    int samples = 0;
+    for(ParamColumn param: wd.getParams()) {
+      samples = Math.max(samples, param.size());
+    }
+    final int rowsMax = mXlsx ? XLSX_DATA_ROWS_MAX : XLS_DATA_ROWS_MAX;
+    while(samples/wd.getStep() > rowsMax) {
+      wd.setStep(wd.getStep() + 1);
+    }
+  }
 
 
   private String[] getSrcFileName(WeldingData wd) {   
@@ -403,53 +635,41 @@ public class DataSaver {
     if(Common.STAN_I.equals(wd.getStanType())) {
       src_fn = 
        wd.getStanSize() == Common.STAN_1000
-       ? "template-i.xls"
-       : "template-i-800.xls";
+       ? "template-i"
+       : "template-i-800";
     }        
     else {
       src_fn =
        wd.getStanSize() == Common.STAN_1000
-       ? "template-o.xls"
-       : "template-o-800.xls";
+       ? "template-o"
+       : "template-o-800";
     }
-    return new String[] {mSrcFilePath, src_fn};
+    return new String[] {mSrcFilePath, src_fn + mExt};
   }      
 
 
-  private String[] getDstFileName(WeldingData wd) {
-    final String dst_path = Paths.get(Common.getArchivePath(),
+  private String getDstFilePath(WeldingData wd) {
+    return Paths.get(Common.getArchivePath(),
      wd.getStanSize().toString(),
      wd.getStanType() + wd.getStanNumber().toString(), 
      Integer.toString(wd.getDate().getYear()),
      Integer.toString(wd.getDate().getMonthValue())).toString();
-    String dst_fn;
+  }              
+  
 
+  private String getDstFileBase(WeldingData wd) {
     if(wd.getVersion() == 0x100) {
-      dst_fn = dateToStr(wd) + ".xls";
+      return dateToStr(wd);
     }
-    else {
-      String dst_fn_base = wd.getStanSize().toString() + "_" + 
-        wd.getStanType() + "-" + wd.getStanNumber().toString() + "____" +
-        Integer.toString(wd.getDate().getYear() % 100) + 
-        "00" + wd.getPipeNumber()+ "_" + wd.getPipeThickness() + "_data";
-      dst_fn = dst_fn_base + ".xls";
-      if(Files.isRegularFile(Paths.get(dst_path, dst_fn))) {
-        int dst_fn_index = 0;
-        dst_fn_base  += "_";
-        boolean found = true;
-        while(found) {
-          dst_fn_index += 1;
-          dst_fn = dst_fn_base + Integer.toString(dst_fn_index) + ".xls";
-          found = Files.isRegularFile(Paths.get(dst_path, dst_fn));
-        }
-      }                
-    }
-    return new String[] {dst_path, dst_fn};
+    return wd.getStanSize().toString() + "_" + 
+      wd.getStanType() + "-" + wd.getStanNumber().toString() + "____" +
+      Integer.toString(wd.getDate().getYear() % 100) + 
+      "00" + wd.getPipeNumber()+ "_" + wd.getPipeThickness() + "_data";
   }              
 
 
   private void exportManualControl(WeldingData wd) {
-    String v = getDataValue(wd, "ManualControl=");
+    String v = getDataText(wd, "ManualControl");
     if(v != null && v.length() > 0) {
       switch(v.substring(0, 1).toUpperCase()) {
         case "F": 
@@ -464,31 +684,31 @@ public class DataSaver {
 
 
   private void exportWeldingSpeed(WeldingData wd) {
-    final String v = getDataValue(wd, "WeldingSpeedFv=");
+    final DataValue v = wd.getDataValue("WeldingSpeedFv");
     setCell(wd, 1, "B29", v);
   }
 
 
   private void exportPipeNumber(WeldingData wd) {
-    final String v = getDataValue(wd, "PipeNumber=");
+    final DataValue v = wd.getDataValue("PipeNumber");
     setCell(wd, 1, "C3", v);
   }
   
 
   private void exportPersonnelNo(WeldingData wd) {
-    final String v = getDataValue(wd, "PersonnelNo=");
+    final DataValue v = wd.getDataValue("PersonnelNo");
     setCell(wd, 1, "O3", v);
   }
   
 
   private void exportPipeThickness(WeldingData wd) {
-    final String v = getDataValue(wd, "PipeThickness=");
+    final DataValue v = wd.getDataValue("PipeThickness");
     setCell(wd, 1, "O21", v);
   }      
 
 
   private void exportPipeDiameter(WeldingData wd) {
-    final String v = getDataValue(wd, "PipeDiameter=");
+    final DataValue v = wd.getDataValue("PipeDiameter");
     setCell(wd, 1, "O20", v);
   }
         
@@ -503,7 +723,7 @@ public class DataSaver {
 
 
   private void exportPipeMeterFK(WeldingData wd) {
-    final String v = getDataValue(wd, "PipeMeterFK=");
+    final DataValue v = wd.getDataValue("PipeMeterFK");
     setCell(wd, 2, "B28", v);
   }
 
@@ -514,13 +734,13 @@ public class DataSaver {
 
 
   private void exportStProvarActive(WeldingData wd) {
-    final String v = getDataValue(wd, "StProvarActive=");
+    final DataValue v = wd.getDataValue("StProvarActive");
     setCell(wd, 4, "B20", v);
   }      
 
 
   private void exportProvarActive(WeldingData wd) {
-    final String v = getDataValue(wd, "ProvarActive=");
+    final DataValue v = wd.getDataValue("ProvarActive");
     setCell(wd, 4, "B31", v);
   }
 
@@ -528,8 +748,8 @@ public class DataSaver {
   private void exportWireDiameter(WeldingData wd, int arc) {
     if(1 <= arc && arc <= 3) {
       final String[] cells = {"C9", "F9", "I9"};
-      final String v = 
-       getDataValue(wd, "WireDiameter" + Integer.toString(arc) + '=');
+      final DataValue v =
+       wd.getDataValue("WireDiameter" + Integer.toString(arc));
       setCell(wd, 1, cells[arc - 1], v);
     }
   }
@@ -537,7 +757,7 @@ public class DataSaver {
 
   private void exportWelderState(WeldingData wd, int arc) {
     final String v = 
-     getDataValue(wd, "WelderState" + Integer.toString(arc) + '=');
+     getDataText(wd, "WelderState" + Integer.toString(arc));
     if(1 <= arc && arc <= 4 && v != null) {
       final String[] cells = {"O7", "O8", "O9", "O10"};
       final TreeMap<String, String> d = new TreeMap<>();
@@ -561,65 +781,54 @@ public class DataSaver {
         
 
   private void exportIx(WeldingData wd) {
-    final String[] cols = {"C", "F", "I", "L"};
+    final int[] cols = {2, 5, 8, 11};
     for(int i = 1; i < 5; i++) {
-      final String v = getDataValue(wd, "Ix" + Integer.toString(i) + "=");
+      final DataValue v = wd.getDataValue("Ix" + Integer.toString(i));
       if(v != null) {
-        final String col = cols[i - 1];
-        setCell(wd, 1, col +  "7", "1");
-        setCell(wd, 1, col + "13", v);
+        final int col = cols[i - 1];
+        setCell(wd, 1, 6, col, 1.0);
+        setCell(wd, 1, 12, col, v);
       }
     }
   }
 
 
   private void exportUx(WeldingData wd) {
-    final String[] cols = {"C", "F", "I", "L"}; 
+    final int[] cols = {2, 5, 8, 11};
     for(int i = 1; i < 5; i++) {
-      final String v = getDataValue(wd, "Ux" + Integer.toString(i) + "=");
+      final String v = getDataText(wd, "Ux" + Integer.toString(i));
       if(v != null) 
-        setCell(wd, 1, cols[i - 1] + "14", v + " B");
+        setCell(wd, 1, 13, cols[i - 1], v + " B");
     }
   }              
 
 
-  private void exportGroup(WeldingData wd, int sheetIndex, String[] cols,
+  private void exportGroup(WeldingData wd, int sheetIndex, int[] cols,
      String group, int startRow) {
     for(int j = 1; j < 5; j++) {
-      final String key = group + "-" + Integer.toString(j) + "-";
-      final int keyLen = key.length();
-      final String[] dataLines = wd.getDataLines();
-      int row = startRow;
-      String v;      
-      for (String line : dataLines) {
-        if(line.length() >= keyLen && line.substring(0, keyLen).equals(key)) {
-          final String cell = cols[j] + Integer.toString(row++);
-          final int index = line.indexOf('=');
-          if(index >= 0)
-            v = line.substring(index + 1);
-          else
-            v = "";
-          setCell(wd, sheetIndex, cell, v);
-        }
+      final String prefix = group + "-" + Integer.toString(j) + "-";
+      int row = startRow - 1;
+      for(DataValue v: wd.getDataGroup(prefix)) {
+        setCell(wd, sheetIndex, row++, cols[j], v);
       }
     }
   }
 
 
-  private void exportOptions(WeldingData wd, String[] cols,
+  private void exportOptions(WeldingData wd, int[] cols,
      String group, int startRow) {
     exportGroup(wd, 2, cols, group, startRow);
   }
 
 
-  private void exportParamsRow(WeldingData wd, String[] cols,
+  private void exportParamsRow(WeldingData wd, int[] cols,
      String group, int startRow) {
     exportGroup(wd, 4, cols, group, startRow);
   }
                  
 
   private void exportRegOptions(WeldingData wd) {
-    final String[] cols = {null, "B", "C", "D", "E"};
+    final int[] cols = {-1, 1, 2, 3, 4};
     exportOptions(wd, cols, "Reg", 3);
     exportPipeMeterFK(wd);
     exportOptions(wd, cols, "BefStartWireFeed", 30);
@@ -629,7 +838,7 @@ public class DataSaver {
 
 
   private void exportWeldParams(WeldingData wd) {
-    final String[] cols = {null, "C", "D", "E", "F"};
+    final int[] cols = {-1, 2, 3, 4, 5};
     exportParamsRow(wd, cols, "WeldPar", 6);
     exportParamsRow(wd, cols, "StartPar", 13);
     exportParamsRow(wd, cols, "StProvarPar", 22);
@@ -642,443 +851,159 @@ public class DataSaver {
   }              
   
 
-  private int colNameToIndex(String name) {
-    int index = 0;
-    final int n = name.length();
-    final int period = 'Z' - 'A' + 1;
-    for(int i = 0; i < n; i++) {
-      index = (name.charAt(i) - 'A' + 1) + index*period;
+  private double[] addColumn(int col, int size) {
+    if(mColumnCount == mColumns.length) {
+      final int n = Math.max(8, mColumnCount*2);
+      mColumns = Arrays.copyOf(mColumns, n);
+      mColumnIndexes = Arrays.copyOf(mColumnIndexes, n);
     }
-    return index;
+    double[] values = mColumns[mColumnCount];
+    if(values == null || values.length < size) {
+      values = new double[Math.max(size, values == null ? 0 : values.length*2)];
+      mColumns[mColumnCount] = values;
+    }
+    mColumnIndexes[mColumnCount++] = col - 1;
+    return values;
   }
     
 
-  private String createExcelColumnName(WeldingData wd, int col) {
-    col -= 1;        
-    final int n = 'Z' - 'A' + 1;
-    if(col >= n) {
-      if(col >= n*2) {
-        if(col >= n*3) {
-          return "C" + (char)('A' + col - 3*n);
+  private void writeColumns(WeldingData wd, int sheet_index, int rowStart,
+     int rows) {
+    final BiffWorkbook biff = wd.getBiffWorkbook();
+    if(biff != null) {
+      for(int i = 0; i < rows; i++) {
+        for(int j = 0; j < mColumnCount; j++) {
+          biff.setNumber(sheet_index, rowStart + i, mColumnIndexes[j],
+           mColumns[j][i]);
         }
-        return "B" + (char)('A' + col - 2*n);
       }
-      return "A" + (char)('A' + col - n);
-    }            
-    return  "" + (char)('A' + col);
-  }              
-
-
-  private void setRange(WeldingData wd, int sheet_index, String range_start, 
-     String range_end, Object values) {
-    final Matcher matcher = mCellNamePattern.matcher(range_start);
-    String colName;
-    String rowName;
-    if(matcher.find()) {
-      colName = matcher.group(1);
-      rowName = matcher.group(2);
-    }
-    else {
-      colName = null;
-      rowName = null;
-    }
-    final int rowStart = Integer.parseInt(rowName);
-    final int colStart = colNameToIndex(colName);
-    
-    matcher.reset(range_end);
-    if(matcher.find()) {
-      colName = matcher.group(1);
-      rowName = matcher.group(2);
-    } 
-    else {
-      colName = null;
-      rowName = null;
-    }
-    final int rowEnd = Integer.parseInt(rowName);
-    final int colEnd = colNameToIndex(colName);
-    
-    Object v;
-        
-    for(int col = colStart; col <= colEnd; col++) {
-      colName = createExcelColumnName(wd, col);
-      final int index_c = col - colStart;
-
-      int index_r = 0;
-      for(int row = rowStart; row <= rowEnd; row++) {
-        if(values == null) {
-          v = null;
-        }
-        else if(!values.getClass().isArray()) {
-          v = values;
-        }
-        else {
-          Object col_values = ((Object[])values)[index_r];
-          if(col_values == null) {
-            v = null;
-          }
-          else if(!col_values.getClass().isArray()) {
-            v = col_values;
-          }
-          else {
-            v = ((Object[])col_values)[index_c];
-          }
+      mColumnCount = 0;
+      return;
+    }
+    final Sheet sheet = getSheet(wd, sheet_index);
+    for(int i = 0; i < rows; i++) {
+      final Row rowObj = getRow(sheet, rowStart + i);
+      for(int j = 0; j < mColumnCount; j++) {
+        final int colIndex = mColumnIndexes[j];
+        Cell cellObj = rowObj.getCell(colIndex);
+        if(cellObj == null) {
+          cellObj = rowObj.createCell(colIndex);
         }
-        setCell(wd, sheet_index, colName + Integer.toString(row), v);                    
-        index_r += 1;
+        cellObj.setCellValue(mColumns[j][i]);
       }
     }   
+    mColumnCount = 0;
   }                      
     
 
-  private void exportField_Meter(WeldingData wd, int col) {
-    LinkedList<Double> values = new LinkedList<>();
-    final String colName = createExcelColumnName(wd, col);
-    final int n = wd.getRows()*wd.getStep();
+  private void exportField_Meter(WeldingData wd, int col, int from,
+     int count) {
     final int step = wd.getStep();
-    for(int i = 0; i < n; i += step) {
-      values.add((double)(i*2));
+    final double[] values = addColumn(col, count);
+    for(int i = 0; i < count; i++) {
+      values[i] = (from + i)*step*2;
     }    
-    setRange(wd, 0, colName + "2", colName + Integer.toString(wd.getRows() + 1),
-     values.toArray());
-  }              
-            
-
-  private String[] genFields(WeldingData wd, int prm) {
-    LinkedList<String> fields = new LinkedList<>();
-    final int n = wd.getStanType().equals(Common.STAN_O) ? 5 : 4;
-    for(int i = 1; i < n; i++)
-      fields.add(Integer.toString(prm) + "_" + Integer.toString(i));
-    return fields.toArray(new String[n - 1]);
   }
 
 
-  private void exportHorzHeadPosition(WeldingData wd, int col) {
-    final String vStr = getDataValue(wd, "HorzHeadPositionRange=");
-    Double v = null;
-    conv: {
-      try {
-        v = Double.parseDouble(vStr);      
-        break conv;
-      }
-      catch(Exception ex) {
-      }
-      try {
-        v = Double.parseDouble(vStr.replace(",", "."));
-        break conv;
-      }
-      catch(Exception ex) {        
-      }
-    }
-    
-    if(v != null) {
-      final int n = wd.getRows();
-      Double[] values = new Double[n];
-      Arrays.fill(values, v);
-      String colName = createExcelColumnName(wd, col);
-      setRange(wd, 0, colName + "2", colName + Integer.toString(n + 1), values);
-      Arrays.fill(values, -v);
-      colName = createExcelColumnName(wd, col + 1);
-      setRange(wd, 0, colName + "2", colName + Integer.toString(n + 1), values);
+  private void exportHorzHeadPosition(WeldingData wd, int col, int count) {
+    final DataValue value = wd.getDataValue("HorzHeadPositionRange");
+    if(value != null && value.isNumber()) {
+      final double v = value.getNumber();
+      Arrays.fill(addColumn(col, count), 0, count, v);
+      Arrays.fill(addColumn(col + 1, count), 0, count, -v);
     }
   } 
   
 
-  private static int getParamArg0(byte[] param, int index) {
-    return (((int)param[index])     & 0xFF) +
-           (((int)param[index + 1]) & 0xFF)*0x100; 
-  }
-  
-
-  private static int getParamArg1(byte[] param, int index) {
-    return ((int)param[index + 2]) & 0xFF;
-  }  
-    
-
-  private void exportField(WeldingData wd, int col, String field,
-     ParamConverter converter) {    
-    final String colName = createExcelColumnName(wd, col);
+  private void exportField(WeldingData wd, int col, int paramKey,
+     ParamConverter converter, int from, int count) {    
     final int step = wd.getStep();
-    final int n = getFieldSize(wd, field)*step;
-    final int max = wd.getRows()*step;
-    final Double[] values = new Double[max];
-    final byte[] param = wd.getParam(field);
-    int index = 0;
+    final ParamColumn param = wd.getParamColumn(paramKey);
+    final int n = Math.min(getFieldSize(wd, param) - from, count);
+    final double[] values = addColumn(col, count);
     
     int i;
-    int j;
-    for(i = 0; i < n; i += step) {
-      j = 3*i;
-      values[index++] = converter.convert(
-       (double)getParamArg0(param, j), getParamArg1(param, j));
+    for(i = 0; i < n; i++) {
+      values[i] = param.convert((from + i)*step, converter);
     }
-    for(; i < max; i += step) {
-      values[index++] = converter.convert(null, null);
-    }
-
-    setRange(wd, 0, colName + "2", colName + Integer.toString(wd.getRows() + 1),
-     values);
-  }
-  
-    
-
-  private void exportFields(WeldingData wd, int col, String[] fields, 
-     ParamConverter converter) {
-    for(String field: fields) {
-      exportField(wd, col++, field, converter);
+    for(; i < count; i++) {
+      values[i] = 0.0;
     }
   }
   
 
   private void exportField_ResultGeom(WeldingData wd, int col, 
-     ParamConverter converter) {
-    final List<Double> values = new ArrayList<>();
-    final String colName = createExcelColumnName(wd, col);
+     ParamConverter converter, int from, int count) {
+    final double[] values = addColumn(col, count);
 
-    final String field1 = "17_0";
-    final String field2 = "27_0";
+    final ParamColumn param1 =
+     wd.getParamColumn(WeldingData.getParamKey(17, 0));
+    final ParamColumn param2 =
+     wd.getParamColumn(WeldingData.getParamKey(27, 0));
     
     final int step = wd.getStep();
 
-    final int n1 = getFieldSize(wd, field1)*step;
-    final int n2 = getFieldSize(wd, field2)*step;
+    final int n1 = getFieldSize(wd, param1)*step;
+    final int n2 = getFieldSize(wd, param2)*step;
     
-    final byte[] param1 = wd.getParam(field1);
-    final byte[] param2 = wd.getParam(field2);
-    
-    int v;
     double v1;
     double v2;
-    int index;
+    int row = 0;
 
-    for(int i = 0; i < wd.getRows()*step; i += step) {
-      index = 3*i;
+    for(int i = from*step; i < (from + count)*step; i += step) {
       if(i < n1) {
-        v = getParamArg0(param1, index);
-        if((v & 0x8000) != 0)
-            v -= 65536;
-        v1 = v/10.0;
+        v1 = param1.getSignedArg0(i)/10.0;
       }            
       else {
         v1 = 0.0;
       }
       if(i < n2) {
-        v = getParamArg0(param2, index);
-        if((v & 0x8000) != 0)
-          v -= 65536;
-        v2 = v/10.0;
+        v2 = param2.getSignedArg0(i)/10.0;
       }            
       else {
         v2 = 0.0;
       }
-      values.add(converter.convert(v1 - v2, 0));
+      values[row++] = converter.convert(v1 - v2, 0);
     }
-
-    setRange(wd, 0, colName + "2", colName + Integer.toString(wd.getRows() + 1),
-     values.toArray());
   }
 
 
   private void exportFields_IdMax(WeldingData wd, int col, 
-     ParamConverter converter) {
-    final String colName = createExcelColumnName(wd, col);
-
-    final String txt = getDataValue(wd, "WireIdMax=");
-    Double v;
-    conv: {
-      try {
-        v = Double.parseDouble(txt);
-        break conv;
-      }
-      catch(Exception ex) {        
-      }
-      try {
-        v = Double.parseDouble(txt.replace(',', '.'));
-        break conv;
-      }
-      catch(Exception ex) {        
-      }
-      v = 0.0;
-    }            
+     ParamConverter converter, int count) {
+    final DataValue value = wd.getDataValue("WireIdMax");
+    final double v = converter.convert(
+     value != null && value.isNumber() ? value.getNumber() : 0.0, 0);
 
-    v = converter.convert(v, 0);
-
-    setRange(wd, 0, colName + "2", 
-     colName + Integer.toString(wd.getRows() + 1), v);
+    Arrays.fill(addColumn(col, count), 0, count, v);
   } 
   
 
-  private void exportCurrentFvChange(WeldingData wd, String[] fields, 
-     ParamConverter converter) {
-    final int step = wd.getStep();
-    final List<Double> values = new ArrayList<>();
-    
-    for(String field: fields) {
-      int index = field.indexOf('_');
-      if( index < 0)
-        continue;
-      final String arc = field.substring(index+1);
-      String col1;
-      String col2;
-      switch(arc) {
-        case "1":
-          col1 = "B";
-          col2 = "C";
-          break;
-        case "2":
-          col1 = "D";
-          col2 = "E";
-          break;
-        case "3":
-          col1 = "F";
-          col2 = "G";
-          break;
-        case "4":
-          col1 = "H";
-          col2 = "I";
-          break;
-        default:
-          continue;
-      }
-
-      values.clear();
-      final int n = getFieldSize(wd, field)*step;
-      final byte[] param = wd.getParam(field);
-
-      for(int i = 0; i < n; i += step) {
-        index = 3*i;
-        values.add(converter.convert(
-         (double)getParamArg0(param, index), getParamArg1(param, index)));
-      }            
-
-      Double Fv = 0.0;
-      if(n > 0) 
-        Fv = values.get(0);
-
-      int row = 6;
-      setCell(wd, 3, col2 + Integer.toString(row), Fv);
-      int i = 0;
-      for(Double v: values) {
-        if(Math.abs(v - Fv) > 0.001) {
-          row++;
-          setCell(wd, 3, col1 + Integer.toString(row), i);
-          setCell(wd, 3, col2 + Integer.toString(row), v);
-          Fv = v;
-        }
-        i += 6;
+  private void exportChanges(WeldingData wd) throws IOException {
+    final ExportPlan plan = ExportPlan.get(wd.getStanType(), wd.getStanSize());
+    for(int i = 0; i < plan.size(); i++) {
+      if(plan.getKind(i) == ExportPlan.KIND_CHANGE) {
+        exportChange(wd, plan.getParamKey(i), plan.getCol(i),
+         plan.getConverter(i), plan.getTolerance(i));
       }
     }
   }
   
 
-  private void exportSSxFvChange(WeldingData wd, String[] fields,
-     ParamConverter converter) {
-    final int step = wd.getStep();
-    final List<Double> values = new ArrayList<>();
-    
-    for(String field: fields) {
-      int index = field.indexOf('_');
-      if(index < 0)
-          continue;
-      final String arc = field.substring(index+1);
-      String col1;
-      String col2;
-      switch(arc) {
-        case "1":
-          col1 = "K";
-          col2 = "L";
-          break;
-        case "2":
-          col1 = "M";
-          col2 = "N";
-          break;
-        case "3":
-          col1 = "O";
-          col2 = "P";
-          break;
-        case "4":
-          col1 = "Q";
-          col2 = "R";
-          break;
-        default:
-          continue;
-      }
-
-      values.clear();
-      final int n = getFieldSize(wd, field)*step;
-      final byte[] param = wd.getParam(field);
-
-      for(int i = 0; i < n; i += step) {
-        index = 3*i;
-        values.add(converter.convert(
-         (double)getParamArg0(param, index), getParamArg1(param, index)));
-      }            
-
-      Double Fv = 0.0;
-      if(n > 0)
-        Fv = values.get(0);
-
-      int row = 6;
-      setCell(wd, 3, col2 + Integer.toString(row), Fv);
-      int i = 0;
-      for(Double v: values) {
-        if(Math.abs(v - Fv) > 0.001) {
-          row++; 
-          setCell(wd, 3, col1 + Integer.toString(row), i);
-          setCell(wd, 3, col2 + Integer.toString(row), v);
-          Fv = v;
-        }            
-        i += 6;
-      }    
-    }
-  }              
-
-
-  private void exportPipeVelocityFVChange(WeldingData wd, String field, 
-     ParamConverter converter) {
-    int row = 6;
-    final List<Double> values = new ArrayList<>();
-    final String col1 = "T";
-    final String col2 = "U";
-    Double Fv = 0.0;
-    final int step = wd.getStep();
-    final int n = getFieldSize(wd, field)*step;
-    final byte[] param = wd.getParam(field); 
-    int index;
-
-    for(int i = 0; i < n; i+= step) {
-      index = 3*i;
-      values.add(converter.convert(
-       (double)getParamArg0(param, index), getParamArg1(param, index)));
-    }            
-
-    if(n > 0)
-      Fv = values.get(0);
-
-    setCell(wd, 3, col2 + Integer.toString(row), Fv);
-    int i = 0;
-    for(Double v: values) {
-      if(Math.abs(v - Fv) > 0.001) {
-        row++; 
-        setCell(wd, 3, col2 + Integer.toString(row), v);
-        setCell(wd, 3, col1 + Integer.toString(row), i);
-        Fv = v;
-      }            
-      i += 6;
+  private void exportChange(WeldingData wd, int paramKey, int col,
+     ParamConverter converter, double tolerance) {
+    final ChangeEncoder encoder = mChangeEncoder;
+    final ParamColumn param = wd.getParamColumn(paramKey);
+    encoder.setTolerance(tolerance);
+    final int n = encoder.encode(param, getFieldSize(wd, param), wd.getStep(),
+     converter);
+    setCell(wd, 3, CHANGES_ROW, col, encoder.getInitial());
+    final double[] offsets = addColumn(col, n);
+    final double[] values = addColumn(col + 1, n);
+    for(int i = 0; i < n; i++) {
+      offsets[i] = encoder.getOffset(i);
+      values[i] = encoder.getValue(i);
     }            
+    writeColumns(wd, 3, CHANGES_ROW + 1, n);
   }                  
-  
-
-  private interface ParamConverter {  
-    Double convert(Double value, Integer flags);
-  }
-  
-
-  private interface FieldExportable {
-    void export(int col, String field, ParamConverter converter);
-  }
-
-  
-  private interface FieldsExportable {
-    void export(int col, int field_base, ParamConverter converter);
-  }
 }
@@ -0,0 +1,132 @@
+package jwna;
+
+public final class DataValue {
+  public static final int TYPE_TEXT   = 0;
+  public static final int TYPE_INT    = 1;
+  public static final int TYPE_DOUBLE = 2;
+
+  public static final DataValue EMPTY = new DataValue(TYPE_TEXT, "", 0.0);
+  private final int mType;
+  private final String mText;
+  private final double mNumber;
+  
+
+  private DataValue(int type, String text, double number) {
+    mType = type;
+    mText = text;
+    mNumber = number;
+  }
+  
+
+  public static DataValue parse(String text) {
+    if(text.isEmpty()) {
+      return EMPTY;
+    }
+    if(isInt(text)) {
+      return new DataValue(TYPE_INT, text, Integer.parseInt(text));
+    }
+    if(isDouble(text)) {
+      return new DataValue(TYPE_DOUBLE, text,
+       Double.parseDouble(text.replace(',', '.')));
+    }
+    return new DataValue(TYPE_TEXT, text, 0.0);
+  }
+  
+
+  public int getType() {
+    return mType;
+  }
+  
+
+  public boolean isNumber() {
+    return mType != TYPE_TEXT;
+  }
+  
+
+  public String getText() {
+    return mText;
+  }
+  
+
+  public double getNumber() {
+    return mNumber;
+  }
+  
+
+  private static boolean isInt(String text) {
+    final int length = text.length();
+    int i = 0;
+    final char sign = text.charAt(0);
+    if(sign == '-' || sign == '+') {
+      i++;
+    }
+    if(i == length || length - i > 10) {
+      return false;
+    }
+    long value = 0;
+    for(; i < length; i++) {
+      final char c = text.charAt(i);
+      if(c < '0' || c > '9') {
+        return false;
+      }
+      value = value*10 + (c - '0');
+    }
+    return sign == '-'
+     ? -value >= Integer.MIN_VALUE
+     : value <= Integer.MAX_VALUE;
+  }
+  
+
+  private static boolean isDouble(String text) {
+    int end = text.length();
+    int i = 0;
+    while(i < end && text.charAt(i) <= ' ') {
+      i++;
+    }
+    while(end > i && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+      i++;
+    }
+    if(text.startsWith("NaN", i) || text.startsWith("Infinity", i)) {
+      return end - i == (text.charAt(i) == 'N' ? 3 : 8);
+    }
+    if(end > i && "fFdD".indexOf(text.charAt(end - 1)) >= 0) {
+      end--;
+    }
+    int digits = 0;
+    boolean point = false;
+    for(; i < end; i++) {
+      final char c = text.charAt(i);
+      if(c >= '0' && c <= '9') {
+        digits++;
+      }
+      else if((c == '.' || c == ',') && !point) {
+        point = true;
+      }
+      else {
+        break;
+      }
+    }
+    if(digits == 0) {
+      return false;
+    }
+    if(i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+      i++;
+      if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+        i++;
+      }
+      if(i == end) {
+        return false;
+      }
+      for(; i < end; i++) {
+        final char c = text.charAt(i);
+        if(c < '0' || c > '9') {
+          return false;
+        }
+      }
+    }
+    return i == end;
+  }
+}
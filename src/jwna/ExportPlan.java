@@ -0,0 +1,306 @@
+package jwna;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ExportPlan {
+  public static final int KIND_METER       = 0;
+  public static final int KIND_FIELD       = 1;
+  public static final int KIND_ID_MAX      = 2;
+  public static final int KIND_RESULT_GEOM = 3;
+  public static final int KIND_HORZ_HEAD   = 4;
+  public static final int KIND_CHANGE      = 5;
+
+  private static final String[] PLAN_O = {
+    "1 meter",
+    "2 fields 2 int",
+    "6 fields 1 int",
+    "10 fields 10 int",
+    "14 fields 4 wireid",
+    "18 idmax wireid",
+    "19 field 5_0 int",
+    "20 field 6_0 caretid",
+    "21 field 24_0 autovert",
+    "22 field 25_0 autohorz",
+    "23 field 26_0 pipedetection",
+    "24 field 11_0 edgesize",
+    "25 field 12_0 edgesize",
+    "26 field 13_0 edgesize",
+    "27 field 17_0 headpos",
+    "28 field 27_0 headpos",
+    "29 geom int",
+    "30 field 19_0 headpos",
+    "31 field 41_0 int",
+    "32 field 37_0 int",
+    "33 field 38_0 int",
+    "34 horzhead",
+    "36 fields 3 int",
+    "40 fields 18 int",
+    "44 fields 22 int",
+    "48 fields 30 int",
+    "52 field 20_0 int",
+    "53 field 33_0 int",
+    "54 field 34_0 int",
+    "55 field 35_0 int",
+    "56 field 36_0 int",
+    "57 field 28_0 ticks",
+    "58 field 49_0 int",
+    "59 field 50_0 int",
+    "60 fields 21 int",
+    "2 changes 31 int",
+    "11 changes 32 int",
+    "20 change 48_0 int"};
+
+  private static final String[] PLAN_I = {
+    "1 meter",
+    "2 fields 2 int",
+    "5 fields 1 int",
+    "8 fields 10 int",
+    "11 fields 4 wireid",
+    "14 idmax wireid",
+    "15 field 5_0 int",
+    "16 field 6_0 caretid",
+    "17 field 24_0 autovert",
+    "18 field 19_0 headpos",
+    "19 field 14_0 int",
+    "20 field 15_0 int",
+    "21 field 16_0 int",
+    "22 fields 3 int",
+    "25 fields 18 int",
+    "28 fields 22 int",
+    "31 field 7_0 int",
+    "32 fields 30 int",
+    "35 field 20_0 int",
+    "36 field 28_0 ticks",
+    "37 field 49_0 int",
+    "38 field 50_0 int",
+    "39 fields 21 int",
+    "2 changes 31 int",
+    "11 changes 32 int",
+    "20 change 48_0 int"};
+
+  private static final ConcurrentHashMap<String, ExportPlan> sPlans =
+   new ConcurrentHashMap<>();
+  private final int[] mKinds;
+  private final int[] mCols;
+  private final int[] mParamKeys;
+  private final ParamConverter[] mConverters;
+  private final double[] mTolerances;
+  
+
+  private ExportPlan(int[] kinds, int[] cols, int[] paramKeys,
+     ParamConverter[] converters, double[] tolerances) {
+    mKinds = kinds;
+    mCols = cols;
+    mParamKeys = paramKeys;
+    mConverters = converters;
+    mTolerances = tolerances;
+  }
+  
+
+  public static ExportPlan get(String stanType, int stanSize)
+     throws IOException {
+    final String name = getFileName(stanType, stanSize);
+    ExportPlan plan = sPlans.get(name);
+    if(plan == null) {
+      final Path path = Paths.get(Common.getAppPath(), name);
+      final List<String> lines = Files.isRegularFile(path)
+       ? Files.readAllLines(path, StandardCharsets.UTF_8)
+       : Arrays.asList(Common.STAN_O.equals(stanType) ? PLAN_O : PLAN_I);
+      plan = parse(lines, getFieldCount(stanType));
+      sPlans.putIfAbsent(name, plan);
+    }
+    return plan;
+  }
+  
+
+  public static int getFieldCount(String stanType) {
+    return Common.STAN_O.equals(stanType) ? 4 : 3;
+  }
+  
+
+  public static ExportPlan parse(List<String> lines, int fieldCount)
+     throws IOException {
+    final ArrayList<Object[]> items = new ArrayList<>();
+    int lineNumber = 0;
+    for(String line: lines) {
+      lineNumber++;
+      final int comment = line.indexOf('#');
+      if(comment >= 0) {
+        line = line.substring(0, comment);
+      }
+      final String[] words = line.trim().split("\\s+");
+      if(words.length == 1 && words[0].isEmpty()) {
+        continue;
+      }
+      try {
+        final int col = Integer.parseInt(words[0]);
+        switch(words.length < 2 ? "" : words[1]) {
+          case "meter":
+            checkWords(words, 2);
+            items.add(new Object[] {KIND_METER, col, -1, null, 0.0});
+            break;
+          case "field":
+            checkWords(words, 4);
+            items.add(new Object[] {KIND_FIELD, col, getParamKey(words[2]),
+             getConverter(words[3]), 0.0});
+            break;
+          case "fields": {
+            checkWords(words, 4);
+            final int prm = Integer.parseInt(words[2]);
+            final ParamConverter converter = getConverter(words[3]);
+            for(int i = 1; i <= fieldCount; i++) {
+              items.add(new Object[] {KIND_FIELD, col + i - 1,
+               WeldingData.getParamKey(prm, i), converter, 0.0});
+            }
+            break;
+          }
+          case "change":
+            checkWords(words, 4, 5);
+            items.add(new Object[] {KIND_CHANGE, col, getParamKey(words[2]),
+             getConverter(words[3]), getTolerance(words, 4)});
+            break;
+          case "changes": {
+            checkWords(words, 4, 5);
+            final int prm = Integer.parseInt(words[2]);
+            final ParamConverter converter = getConverter(words[3]);
+            final double tolerance = getTolerance(words, 4);
+            for(int i = 1; i <= fieldCount; i++) {
+              items.add(new Object[] {KIND_CHANGE, col + 2*(i - 1),
+               WeldingData.getParamKey(prm, i), converter, tolerance});
+            }
+            break;
+          }
+          case "idmax":
+            checkWords(words, 3);
+            items.add(new Object[] {KIND_ID_MAX, col, -1,
+             getConverter(words[2]), 0.0});
+            break;
+          case "geom":
+            checkWords(words, 3);
+            items.add(new Object[] {KIND_RESULT_GEOM, col, -1,
+             getConverter(words[2]), 0.0});
+            break;
+          case "horzhead":
+            checkWords(words, 2);
+            items.add(new Object[] {KIND_HORZ_HEAD, col, -1, null, 0.0});
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown export");
+        }
+      }
+      catch(IllegalArgumentException ex) {
+        throw new IOException(String.format("Export plan line %d: %s",
+         lineNumber, ex.getMessage()));
+      }
+    }
+
+    final int n = items.size();
+    final int[] kinds = new int[n];
+    final int[] cols = new int[n];
+    final int[] paramKeys = new int[n];
+    final ParamConverter[] converters = new ParamConverter[n];
+    final double[] tolerances = new double[n];
+    for(int i = 0; i < n; i++) {
+      final Object[] item = items.get(i);
+      kinds[i] = (Integer)item[0];
+      cols[i] = (Integer)item[1];
+      paramKeys[i] = (Integer)item[2];
+      converters[i] = (ParamConverter)item[3];
+      tolerances[i] = (Double)item[4];
+    }
+    return new ExportPlan(kinds, cols, paramKeys, converters, tolerances);
+  }
+  
+
+  public int size() {
+    return mKinds.length;
+  }
+  
+
+  public int getKind(int index) {
+    return mKinds[index];
+  }
+  
+
+  public int getCol(int index) {
+    return mCols[index];
+  }
+  
+
+  public int getParamKey(int index) {
+    return mParamKeys[index];
+  }
+  
+
+  public String getField(int index) {
+    return mParamKeys[index] < 0
+     ? null
+     : WeldingData.getParamName(mParamKeys[index]);
+  }
+  
+
+  public ParamConverter getConverter(int index) {
+    return mConverters[index];
+  }
+  
+
+  public double getTolerance(int index) {
+    return mTolerances[index];
+  }
+  
+
+  private static String getFileName(String stanType, int stanSize) {
+    return (Common.STAN_O.equals(stanType) ? "export-o" : "export-i")
+     + (stanSize == Common.STAN_1000 ? "" : "-800") + ".map";
+  }
+  
+
+  private static void checkWords(String[] words, int count) {
+    checkWords(words, count, count);
+  }
+  
+
+  private static void checkWords(String[] words, int min, int max) {
+    if(words.length < min || words.length > max) {
+      throw new IllegalArgumentException("Wrong number of arguments");
+    }
+  }
+  
+
+  private static double getTolerance(String[] words, int index) {
+    if(words.length <= index) {
+      return ChangeEncoder.DEFAULT_TOLERANCE;
+    }
+    final double tolerance = Double.parseDouble(words[index]);
+    if(!(tolerance >= 0)) {
+      throw new IllegalArgumentException("Bad tolerance " + words[index]);
+    }
+    return tolerance;
+  }
+  
+
+  private static int getParamKey(String field) {
+    final int key = WeldingData.getParamKey(field);
+    if(key < 0) {
+      throw new IllegalArgumentException("Bad field " + field);
+    }
+    return key;
+  }
+  
+
+  private static ParamConverter getConverter(String name) {
+    final ParamConverter converter = ParamConverter.forName(name);
+    if(converter == null) {
+      throw new IllegalArgumentException("Unknown converter " + name);
+    }
+    return converter;
+  }
+}
@@ -0,0 +1,118 @@
+package jwna;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class FrameDecoder {
+  private static final int INITIAL_BUFF_SIZE = 0x400;
+  private int mLengthSize = 2;
+  private int mMaxLength = 0x10000 + 2;
+  private byte[] mBuff = new byte[INITIAL_BUFF_SIZE];
+  private int mFilled;
+  private int mLength;
+  private boolean mComplete;
+  
+
+  public byte[] getBuffer() {
+    return mBuff;
+  }
+  
+
+  public int getLength() {
+    return mLength;
+  }
+  
+
+  public int getLengthSize() {
+    return mLengthSize;
+  }
+  
+
+  public void setLengthSize(int lengthSize) {
+    if(lengthSize != 2 && lengthSize != 4) {
+      throw new IllegalArgumentException("Length size must be 2 or 4");
+    }
+    mLengthSize = lengthSize;
+  }
+  
+
+  public void setMaxLength(int maxLength) {
+    mMaxLength = maxLength;
+  }
+  
+
+  public void read(InputStream stream) throws IOException {
+    reset();
+    readFully(stream, mLengthSize);
+    startBody();
+    readFully(stream, mLength);
+    mComplete = true;
+  }
+  
+
+  public boolean feed(ByteBuffer src) throws IOException {
+    if(mComplete) {
+      reset();
+    }
+
+    while(src.hasRemaining()) {
+      if(mLength == 0) {
+        mBuff[mFilled++] = src.get();
+        if(mFilled == mLengthSize) {
+          startBody();
+        }
+      }
+      else {
+        final int n = Math.min(src.remaining(), mLength - mFilled);
+        src.get(mBuff, mFilled, n);
+        mFilled += n;
+      }
+
+      if(mLength != 0 && mFilled == mLength) {
+        mComplete = true;
+        break;
+      }
+    }
+
+    return mComplete;
+  }
+  
+
+  private void reset() {
+    mFilled = 0;
+    mLength = 0;
+    mComplete = false;
+  }
+  
+
+  private void startBody() throws IOException {
+    long length = 0;
+    for(int i = mLengthSize - 1; i >= 0; i--) {
+      length = (length << 8) | ((int)mBuff[i] & 0xFF);
+    }
+    length += mLengthSize;
+    if(length > mMaxLength) {
+      throw new IOException("Packet is too long");
+    }
+    if(length > mBuff.length) {
+      final byte[] buff =
+       new byte[(int)Math.min(mMaxLength, Math.max(length, mBuff.length*2L))];
+      System.arraycopy(mBuff, 0, buff, 0, mLengthSize);
+      mBuff = buff;
+    }
+    mLength = (int)length;
+  }
+  
+
+  private void readFully(InputStream stream, int length) throws IOException {
+    while(mFilled < length) {
+      final int n = stream.read(mBuff, mFilled, length - mFilled);
+      if(n < 0) {
+        throw new EOFException();
+      }
+      mFilled += n;
+    }
+  }
+}
@@ -0,0 +1,431 @@
+package jwna;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+public class Journal implements Runnable {
+  private static final int SEGMENT_MAGIC = 0x4C4E524A;
+  private static final int SEGMENT_HEADER_SIZE = 12;
+  private static final int RECORD_HEADER_SIZE = 17;
+  private static final byte RECORD_END    = 0;
+  private static final byte RECORD_OPEN   = 1;
+  private static final byte RECORD_PACKET = 2;
+  private static final byte RECORD_COMMIT = 3;
+  private static final byte RECORD_DONE   = 4;
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private final Path mDir;
+  private final int mSegmentSize;
+  private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+  private final ArrayDeque<Segment> mFree = new ArrayDeque<>();
+  private final HashMap<Long, ArrayList<Segment>> mCycleSegments =
+   new HashMap<>();
+  private final ArrayList<Segment> mUnforced = new ArrayList<>();
+  private final ArrayList<Committed> mCommitted = new ArrayList<>();
+  private final CRC32 mCrc = new CRC32();
+  private int mFileCount;
+  private long mLastSeq;
+  private long mLastId;
+  
+
+  public static class Cycle {
+    private final long mId;
+    private String mIp;
+    private final ArrayList<byte[]> mPackets = new ArrayList<>();
+    private boolean mCommitted;
+    private boolean mDone;
+    
+
+    private Cycle(long id) {
+      mId = id;
+    }
+    
+
+    public long getId() {
+      return mId;
+    }
+    
+
+    public String getIp() {
+      return mIp;
+    }
+    
+
+    public List<byte[]> getPackets() {
+      return mPackets;
+    }
+  }
+  
+
+  public interface Committed {
+    void committed(boolean forced);
+  }
+  
+
+  private static class Segment {
+    private final MappedByteBuffer mBuff;
+    private final HashSet<Long> mLive = new HashSet<>();
+    private long mSeq;
+    private int mPos = SEGMENT_HEADER_SIZE;
+    private boolean mUnforced;
+    
+
+    private Segment(MappedByteBuffer buff) {
+      mBuff = buff;
+    }
+  }
+  
+
+  public Journal(Path dir, int segmentSize) {
+    mDir = dir;
+    mSegmentSize = segmentSize;
+  }
+  
+
+  public synchronized List<Cycle> open() throws IOException {
+    Files.createDirectories(mDir);
+
+    final ArrayList<Segment> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+          Files.newDirectoryStream(mDir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for(Path path: stream) {
+        final Segment segment = map(path, 0);
+        mFileCount++;
+        if(segment.mBuff.capacity() >= SEGMENT_HEADER_SIZE
+           && segment.mBuff.getInt(0) == SEGMENT_MAGIC) {
+          segment.mSeq = segment.mBuff.getLong(4);
+          segments.add(segment);
+        }
+        else {
+          mFree.add(segment);
+        }
+      }
+    }
+    Collections.sort(segments, (a, b) -> Long.compare(a.mSeq, b.mSeq));
+
+    final LinkedHashMap<Long, Cycle> cycles = new LinkedHashMap<>();
+    for(Segment segment: segments) {
+      mLastSeq = Math.max(mLastSeq, segment.mSeq);
+      scan(segment, cycles);
+      mSegments.add(segment);
+    }
+
+    final ArrayList<Cycle> result = new ArrayList<>();
+    for(Cycle cycle: cycles.values()) {
+      mLastId = Math.max(mLastId, cycle.mId);
+      if(cycle.mCommitted && !cycle.mDone) {
+        result.add(cycle);
+      }
+    }
+
+    for(Segment segment: mSegments) {
+      final Iterator<Long> it = segment.mLive.iterator();
+      while(it.hasNext()) {
+        final Cycle cycle = cycles.get(it.next());
+        if(!cycle.mCommitted || cycle.mDone) {
+          it.remove();
+        }
+        else {
+          addCycleSegment(cycle.mId, segment);
+        }
+      }
+    }
+
+    recycle();
+    roll(0);
+
+    return result;
+  }
+  
+
+  public synchronized long begin(String ip) throws IOException {
+    final long id = ++mLastId;
+    final byte[] ipBytes =
+     (ip == null ? "" : ip).getBytes(StandardCharsets.US_ASCII);
+    write(RECORD_OPEN, id, ipBytes, ipBytes.length, true);
+    return id;
+  }
+  
+
+  public synchronized void append(long id, byte[] buff, int length)
+     throws IOException {
+    write(RECORD_PACKET, id, buff, length, true);
+  }
+  
+
+  public void commit(long id) throws IOException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final boolean[] result = new boolean[1];
+    commit(id, forced -> {
+      result[0] = forced;
+      latch.countDown();
+    });
+    try {
+      latch.await();
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if(!result[0]) {
+      throw new IOException("Journal was not forced to disk");
+    }
+  }
+  
+
+  public synchronized void commit(long id, Committed committed)
+     throws IOException {
+    write(RECORD_COMMIT, id, null, 0, true);
+    for(Segment segment: mCycleSegments.get(id)) {
+      if(!segment.mUnforced) {
+        segment.mUnforced = true;
+        mUnforced.add(segment);
+      }
+    }
+    mCommitted.add(committed);
+    notifyAll();
+  }
+  
+
+  @Override
+  public void run() {
+    final ArrayList<Segment> segments = new ArrayList<>();
+    final ArrayList<Committed> committed = new ArrayList<>();
+    try {
+      for(;;) {
+        synchronized(this) {
+          while(mCommitted.isEmpty()) {
+            wait();
+          }
+          for(Segment segment: mUnforced) {
+            segment.mUnforced = false;
+          }
+          segments.addAll(mUnforced);
+          mUnforced.clear();
+          committed.addAll(mCommitted);
+          mCommitted.clear();
+        }
+
+        boolean forced = true;
+        for(Segment segment: segments) {
+          try {
+            segment.mBuff.force();
+          }
+          catch(RuntimeException ex) {
+            forced = false;
+            Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+          }
+        }
+        for(Committed c: committed) {
+          c.committed(forced);
+        }
+        segments.clear();
+        committed.clear();
+      }
+    }
+    catch(InterruptedException ex) {
+    }
+  }
+  
+
+  public synchronized void abandon(long id) {
+    release(id);
+  }
+  
+
+  public synchronized void saved(long id) throws IOException {
+    write(RECORD_DONE, id, null, 0, false);
+    release(id);
+  }
+  
+
+  private void release(long id) {
+    final ArrayList<Segment> segments = mCycleSegments.remove(id);
+    if(segments != null) {
+      for(Segment segment: segments) {
+        segment.mLive.remove(id);
+      }
+      recycle();
+    }
+  }
+  
+
+  private void recycle() {
+    while(mSegments.size() > 1 && mSegments.getFirst().mLive.isEmpty()) {
+      final Segment segment = mSegments.removeFirst();
+      segment.mBuff.put(SEGMENT_HEADER_SIZE, RECORD_END);
+      segment.mBuff.putInt(0, 0);
+      mFree.add(segment);
+    }
+  }
+  
+
+  private void addCycleSegment(long id, Segment segment) {
+    ArrayList<Segment> segments = mCycleSegments.get(id);
+    if(segments == null) {
+      segments = new ArrayList<>(1);
+      mCycleSegments.put(id, segments);
+    }
+    if(segments.isEmpty() || segments.get(segments.size() - 1) != segment) {
+      segments.add(segment);
+    }
+  }
+  
+
+  private void write(byte type, long id, byte[] buff, int length, boolean live)
+     throws IOException {
+    final int size = RECORD_HEADER_SIZE + length;
+    Segment segment = mSegments.peekLast();
+    if(segment == null || segment.mPos + size + 1 > segment.mBuff.capacity()) {
+      segment = roll(size + 1);
+    }
+
+    mCrc.reset();
+    mCrc.update(type);
+    for(int i = 0; i < 8; i++) {
+      mCrc.update((int)(id >>> (8*i)));
+    }
+    if(length > 0) {
+      mCrc.update(buff, 0, length);
+    }
+
+    final MappedByteBuffer dst = segment.mBuff;
+    final int pos = segment.mPos;
+    dst.position(pos + 1);
+    dst.putInt(length);
+    dst.putLong(id);
+    dst.putInt((int)mCrc.getValue());
+    if(length > 0) {
+      dst.put(buff, 0, length);
+    }
+    dst.put(RECORD_END);
+    dst.put(pos, type);
+    segment.mPos = pos + size;
+
+    if(live) {
+      segment.mLive.add(id);
+      addCycleSegment(id, segment);
+    }
+  }
+  
+
+  private Segment roll(int size) throws IOException {
+    Segment segment = null;
+    final Iterator<Segment> it = mFree.iterator();
+    while(it.hasNext()) {
+      final Segment free = it.next();
+      if(free.mBuff.capacity() >= SEGMENT_HEADER_SIZE + size) {
+        it.remove();
+        segment = free;
+        break;
+      }
+    }
+    if(segment == null) {
+      Path path;
+      do {
+        path = mDir.resolve(String.format("%s%04d%s",
+         SEGMENT_PREFIX, mFileCount++, SEGMENT_SUFFIX));
+      } while(Files.exists(path));
+      segment = map(path, Math.max(mSegmentSize, SEGMENT_HEADER_SIZE + size));
+    }
+
+    segment.mSeq = ++mLastSeq;
+    segment.mPos = SEGMENT_HEADER_SIZE;
+    segment.mLive.clear();
+    segment.mBuff.put(SEGMENT_HEADER_SIZE, RECORD_END);
+    segment.mBuff.putLong(4, segment.mSeq);
+    segment.mBuff.putInt(0, SEGMENT_MAGIC);
+    mSegments.add(segment);
+    return segment;
+  }
+  
+
+  private static Segment map(Path path, int size) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+          StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+      final long length = Math.max(size, channel.size());
+      return new Segment(
+       channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+    }
+  }
+  
+
+  private void scan(Segment segment, HashMap<Long, Cycle> cycles) {
+    final MappedByteBuffer src = segment.mBuff;
+    final int capacity = src.capacity();
+    int pos = SEGMENT_HEADER_SIZE;
+
+    while(pos + RECORD_HEADER_SIZE <= capacity) {
+      final byte type = src.get(pos);
+      if(type == RECORD_END) {
+        break;
+      }
+      final int length = src.getInt(pos + 1);
+      final long id = src.getLong(pos + 5);
+      final int crc = src.getInt(pos + 13);
+      if(length < 0 || pos + RECORD_HEADER_SIZE + length > capacity) {
+        break;
+      }
+      final byte[] data = new byte[length];
+      src.position(pos + RECORD_HEADER_SIZE);
+      src.get(data);
+
+      mCrc.reset();
+      mCrc.update(type);
+      for(int i = 0; i < 8; i++) {
+        mCrc.update((int)(id >>> (8*i)));
+      }
+      mCrc.update(data, 0, length);
+      if((int)mCrc.getValue() != crc) {
+        break;
+      }
+
+      Cycle cycle = cycles.get(id);
+      if(cycle == null) {
+        cycle = new Cycle(id);
+        cycles.put(id, cycle);
+      }
+      switch(type) {
+        case RECORD_OPEN:
+          cycle.mIp = new String(data, StandardCharsets.US_ASCII);
+          break;
+        case RECORD_PACKET:
+          cycle.mPackets.add(data);
+          break;
+        case RECORD_COMMIT:
+          cycle.mCommitted = true;
+          break;
+        case RECORD_DONE:
+          cycle.mDone = true;
+          break;
+      }
+      if(type != RECORD_DONE) {
+        segment.mLive.add(id);
+      }
+
+      pos += RECORD_HEADER_SIZE + length;
+    }
+
+    segment.mPos = pos;
+  }
+}
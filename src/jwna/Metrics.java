@@ -0,0 +1,290 @@
+package jwna;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class Metrics implements MetricsMXBean {
+  public static final String OBJECT_NAME = "jwna:type=Metrics";
+  private static final int LATENCY_BUCKETS = 26;
+  private static final String[] PACKET_NAMES = {
+    "UNKNOWN", "BEGIN_REQUEST", "END_REQUEST", "WRITE_DATA", "WRITE_MSG",
+    "WRITE_PARAM", "APPEND_PARAM", "WRITE_DATA_Z", "WRITE_PARAM_Z",
+    "APPEND_PARAM_Z"
+  };
+  private static final Metrics sInstance = new Metrics();
+  private final Histogram[] mPackets = new Histogram[PACKET_NAMES.length];
+  private final ConcurrentHashMap<String, LongAdder> mBytesReceived =
+   new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, SaveStats> mSaves =
+   new ConcurrentHashMap<>();
+  private final AtomicInteger mActiveConnections = new AtomicInteger();
+  private final CopyOnWriteArrayList<SaveQueue> mQueues =
+   new CopyOnWriteArrayList<>();
+  private ScheduledExecutorService mDumpExecutor;
+  
+
+  private static class Histogram {
+    private final AtomicLongArray mBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+    
+
+    void record(long nanos) {
+      final long micros = Math.max(0, nanos/1000);
+      final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+      mBuckets.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+    }
+    
+
+    long[] toArray() {
+      final long[] result = new long[LATENCY_BUCKETS];
+      for(int i = 0; i < LATENCY_BUCKETS; i++) {
+        result[i] = mBuckets.get(i);
+      }
+      return result;
+    }
+  }
+  
+
+  private static class SaveStats {
+    private final LongAdder mFailures = new LongAdder();
+    private final Histogram mLatency = new Histogram();
+  }
+  
+
+  private Metrics() {
+    for(int i = 0; i < mPackets.length; i++) {
+      mPackets[i] = new Histogram();
+    }
+  }
+  
+
+  public static Metrics getInstance() {
+    return sInstance;
+  }
+  
+
+  public synchronized void start(int dumpInterval) throws JMException {
+    ManagementFactory.getPlatformMBeanServer()
+     .registerMBean(this, new ObjectName(OBJECT_NAME));
+    if(dumpInterval > 0 && mDumpExecutor == null) {
+      mDumpExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "Metrics");
+        thread.setDaemon(true);
+        return thread;
+      });
+      mDumpExecutor.scheduleAtFixedRate(this::dumpToLog,
+       dumpInterval, dumpInterval, TimeUnit.SECONDS);
+    }
+  }
+  
+
+  public void packetReceived(int packetId, int length, String stanKey,
+     long nanos) {
+    mPackets[packetId > 0 && packetId < mPackets.length ? packetId : 0]
+     .record(nanos);
+    mBytesReceived.computeIfAbsent(stanKey, key -> new LongAdder())
+     .add(length);
+  }
+  
+
+  public void connectionOpened() {
+    mActiveConnections.incrementAndGet();
+  }
+  
+
+  public void connectionClosed() {
+    mActiveConnections.decrementAndGet();
+  }
+  
+
+  public void addQueue(SaveQueue queue) {
+    mQueues.add(queue);
+  }
+  
+
+  public void cycleSaved(String stanKey, long nanos, boolean failed) {
+    final SaveStats stats =
+     mSaves.computeIfAbsent(stanKey, key -> new SaveStats());
+    stats.mLatency.record(nanos);
+    if(failed) {
+      stats.mFailures.increment();
+    }
+  }
+  
+
+  @Override
+  public long[] getLatencyBucketsMicros() {
+    final long[] result = new long[LATENCY_BUCKETS];
+    for(int i = 0; i < LATENCY_BUCKETS - 1; i++) {
+      result[i] = 1L << i;
+    }
+    result[LATENCY_BUCKETS - 1] = Long.MAX_VALUE;
+    return result;
+  }
+  
+
+  @Override
+  public Map<String, Long> getPacketCounts() {
+    final TreeMap<String, Long> result = new TreeMap<>();
+    for(int i = 0; i < mPackets.length; i++) {
+      result.put(PACKET_NAMES[i], count(mPackets[i].toArray()));
+    }
+    return result;
+  }
+  
+
+  @Override
+  public Map<String, long[]> getPacketLatencies() {
+    final TreeMap<String, long[]> result = new TreeMap<>();
+    for(int i = 0; i < mPackets.length; i++) {
+      result.put(PACKET_NAMES[i], mPackets[i].toArray());
+    }
+    return result;
+  }
+  
+
+  @Override
+  public Map<String, Long> getBytesReceived() {
+    final TreeMap<String, Long> result = new TreeMap<>();
+    mBytesReceived.forEach((key, value) -> result.put(key, value.sum()));
+    return result;
+  }
+  
+
+  @Override
+  public int getActiveConnections() {
+    return mActiveConnections.get();
+  }
+  
+
+  @Override
+  public int getQueueDepth() {
+    int depth = 0;
+    for(SaveQueue queue: mQueues) {
+      depth += queue.size();
+    }
+    return depth;
+  }
+  
+
+  @Override
+  public int getSpilledCycles() {
+    int spilled = 0;
+    for(SaveQueue queue: mQueues) {
+      spilled += queue.getSpilled();
+    }
+    return spilled;
+  }
+  
+
+  @Override
+  public Map<String, Long> getSaveCounts() {
+    final TreeMap<String, Long> result = new TreeMap<>();
+    mSaves.forEach((key, value) ->
+     result.put(key, count(value.mLatency.toArray())));
+    return result;
+  }
+  
+
+  @Override
+  public Map<String, Long> getSaveFailures() {
+    final TreeMap<String, Long> result = new TreeMap<>();
+    mSaves.forEach((key, value) -> result.put(key, value.mFailures.sum()));
+    return result;
+  }
+  
+
+  @Override
+  public Map<String, long[]> getSaveLatencies() {
+    final TreeMap<String, long[]> result = new TreeMap<>();
+    mSaves.forEach((key, value) -> result.put(key, value.mLatency.toArray()));
+    return result;
+  }
+  
+
+  @Override
+  public String dump() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(String.format("connections=%d queue=%d spilled=%d%n",
+     getActiveConnections(), getQueueDepth(), getSpilledCycles()));
+    for(int i = 0; i < mPackets.length; i++) {
+      final long[] buckets = mPackets[i].toArray();
+      if(count(buckets) != 0) {
+        appendLatency(builder.append("packet ").append(PACKET_NAMES[i]),
+         buckets);
+      }
+    }
+    getBytesReceived().forEach((key, value) -> builder.append(
+     String.format("received %s bytes=%d%n", key, value)));
+    final Map<String, Long> failures = getSaveFailures();
+    getSaveLatencies().forEach((key, value) -> appendLatency(
+     builder.append("save ").append(key)
+      .append(" failures=").append(failures.get(key)), value));
+    return builder.toString();
+  }
+  
+
+  private static void appendLatency(StringBuilder builder, long[] buckets) {
+    builder.append(String.format(" count=%d p50<%s p99<%s max<%s%n",
+     count(buckets), percentile(buckets, 0.5), percentile(buckets, 0.99),
+     percentile(buckets, 1.0)));
+  }
+  
+
+  private static String percentile(long[] buckets, double fraction) {
+    final long target = (long)Math.ceil(count(buckets)*fraction);
+    long sum = 0;
+    for(int i = 0; i < buckets.length - 1; i++) {
+      sum += buckets[i];
+      if(sum >= target) {
+        return (1L << i) + "us";
+      }
+    }
+    return "inf";
+  }
+  
+
+  private static long count(long[] buckets) {
+    long count = 0;
+    for(long bucket: buckets) {
+      count += bucket;
+    }
+    return count;
+  }
+  
+
+  private void dumpToLog() {
+    final LocalDateTime now = LocalDateTime.now();
+    final Path filePath = Paths.get(Common.getAppPath(), "Log",
+     String.format("Metrics (%04d-%02d).log",
+      now.getYear(), now.getMonthValue()));
+    try {
+      Files.createDirectories(filePath.getParent());
+      Files.write(filePath,
+       ("[" + now + "]" + System.lineSeparator() + dump())
+        .getBytes(StandardCharsets.UTF_8),
+       StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package jwna;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+  long[] getLatencyBucketsMicros();
+
+  Map<String, Long> getPacketCounts();
+
+  Map<String, long[]> getPacketLatencies();
+
+  Map<String, Long> getBytesReceived();
+
+  int getActiveConnections();
+
+  int getQueueDepth();
+
+  int getSpilledCycles();
+
+  Map<String, Long> getSaveCounts();
+
+  Map<String, Long> getSaveFailures();
+
+  Map<String, long[]> getSaveLatencies();
+
+  String dump();
+}
@@ -0,0 +1,130 @@
+package jwna;
+
+import java.util.Arrays;
+
+public final class ParamColumn {
+  private static final short[] EMPTY_ARG0 = new short[0];
+  private static final byte[] EMPTY_ARG1 = new byte[0];
+  private short[] mArg0 = EMPTY_ARG0;
+  private byte[] mArg1 = EMPTY_ARG1;
+  private int mSize;
+  private final byte[] mTail = new byte[2];
+  private int mTailSize;
+  private final int mKey;
+  
+
+  public ParamColumn(int key) {
+    mKey = key;
+  }
+  
+
+  public ParamColumn(int key, byte[] values) {
+    this(key);
+    append(values, 0, values.length);
+  }
+  
+
+  public int getKey() {
+    return mKey;
+  }
+  
+
+  public String getName() {
+    return WeldingData.getParamName(mKey);
+  }
+  
+
+  public void append(byte[] values, int offset, int length) {
+    final int end = offset + length;
+    while(mTailSize > 0 && offset < end) {
+      if(mTailSize == 2) {
+        add(mTail[0], mTail[1], values[offset++]);
+        mTailSize = 0;
+      }
+      else {
+        mTail[mTailSize++] = values[offset++];
+      }
+    }
+    final int samples = (end - offset)/3;
+    ensure(mSize + samples);
+    final short[] arg0 = mArg0;
+    final byte[] arg1 = mArg1;
+    int size = mSize;
+    for(int i = 0; i < samples; i++) {
+      arg0[size] = (short)((values[offset] & 0xFF)
+       | (values[offset + 1] & 0xFF) << 8);
+      arg1[size++] = values[offset + 2];
+      offset += 3;
+    }
+    mSize = size;
+    while(offset < end) {
+      mTail[mTailSize++] = values[offset++];
+    }
+  }
+  
+
+  private void add(byte lo, byte hi, byte flags) {
+    ensure(mSize + 1);
+    mArg0[mSize] = (short)((lo & 0xFF) | (hi & 0xFF) << 8);
+    mArg1[mSize++] = flags;
+  }
+  
+
+  private void ensure(int capacity) {
+    if(capacity > mArg0.length) {
+      final int n = Math.max(capacity, mArg0.length*3/2);
+      mArg0 = Arrays.copyOf(mArg0, n);
+      mArg1 = Arrays.copyOf(mArg1, n);
+    }
+  }
+  
+
+  public int size() {
+    return mSize;
+  }
+  
+
+  public int getArg0(int index) {
+    return mArg0[index] & 0xFFFF;
+  }
+  
+
+  public int getSignedArg0(int index) {
+    return mArg0[index];
+  }
+  
+
+  public int getArg1(int index) {
+    return mArg1[index] & 0xFF;
+  }
+  
+
+  public double convert(int index, ParamConverter converter) {
+    return converter.convert(mArg0[index] & 0xFFFF, mArg1[index] & 0xFF);
+  }
+  
+
+  public int getByteLength() {
+    return 3*mSize + mTailSize;
+  }
+  
+
+  public byte[] toBytes() {
+    final byte[] values = new byte[getByteLength()];
+    int j = 0;
+    for(int i = 0; i < mSize; i++) {
+      values[j++] = (byte)mArg0[i];
+      values[j++] = (byte)(mArg0[i] >>> 8);
+      values[j++] = mArg1[i];
+    }
+    for(int i = 0; i < mTailSize; i++) {
+      values[j++] = mTail[i];
+    }
+    return values;
+  }
+  
+
+  long getRetainedSize() {
+    return 64 + 2L*mArg0.length + mArg1.length;
+  }
+}
@@ -0,0 +1,55 @@
+package jwna;
+
+public interface ParamConverter {
+  ParamConverter INT = (value, flags) -> value;
+
+  ParamConverter TICKS = (value, flags) -> (value*0x100 + flags)/1000.0;
+
+  ParamConverter HEAD_POS = (value, flags) -> {
+    int v = (int)value;
+    if((v & 0x8000) != 0)
+      v -= 65536;
+    return v/10.0;
+  };
+
+  ParamConverter EDGE_SIZE = (value, flags) -> value/10.0;
+
+  ParamConverter CARET_ID = (value, flags) -> value/100.0;
+
+  ParamConverter WIRE_ID = (value, flags) -> value/100.0;
+
+  ParamConverter AUTO_VERT = (value, flags) -> value + 1.0;
+
+  ParamConverter AUTO_HORZ = (value, flags) -> value + 3;
+
+  ParamConverter PIPE_DETECTION = (value, flags) -> value + 5;
+  
+
+  double convert(double value, int flags);
+  
+
+  static ParamConverter forName(String name) {
+    switch(name) {
+      case "int":
+        return INT;
+      case "ticks":
+        return TICKS;
+      case "headpos":
+        return HEAD_POS;
+      case "edgesize":
+        return EDGE_SIZE;
+      case "caretid":
+        return CARET_ID;
+      case "wireid":
+        return WIRE_ID;
+      case "autovert":
+        return AUTO_VERT;
+      case "autohorz":
+        return AUTO_HORZ;
+      case "pipedetection":
+        return PIPE_DETECTION;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package jwna;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+public class SaveQueue implements Runnable {
+  private static final long SPILL_RETRY_DELAY = 1000;
+  private static final String SPILL_SUFFIX = ".spill";
+  private final Path mSpillDir;
+  private final String mSpillPrefix;
+  private final long mMemoryBudget;
+  private final ArrayDeque<Entry> mEntries = new ArrayDeque<>();
+  private long mMemory;
+  private long mNextSpill;
+  private int mSpilled;
+  private boolean mSpillFailed;
+  
+
+  private static class Entry {
+    private WeldingData mWd;
+    private final long mSize;
+    private Path mPath;
+    private boolean mSpilling;
+    private boolean mTaken;
+    private int mLoadFailures;
+    
+
+    private Entry(WeldingData wd, long size) {
+      mWd = wd;
+      mSize = size;
+    }
+  }
+  
+
+  public SaveQueue(Path spillDir, String spillPrefix, long memoryBudget) {
+    mSpillDir = spillDir;
+    mSpillPrefix = spillPrefix;
+    mMemoryBudget = memoryBudget;
+    mNextSpill = System.currentTimeMillis()*1000;
+  }
+  
+
+  public synchronized boolean offer(WeldingData wd) {
+    if(mMemory > mMemoryBudget
+       && (mSpillFailed || mMemory > 2*mMemoryBudget)) {
+      return false;
+    }
+    put(wd);
+    return true;
+  }
+  
+
+  public synchronized void put(WeldingData wd) {
+    final Entry entry = new Entry(wd, wd.getRetainedSize());
+    mEntries.add(entry);
+    mMemory += entry.mSize;
+    notifyAll();
+  }
+  
+
+  public boolean keep(WeldingData wd) {
+    final Path path;
+    synchronized(this) {
+      path = nextSpillPath();
+    }
+    try {
+      write(path, wd);
+      return true;
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+      return false;
+    }
+  }
+  
+
+  public WeldingData take() throws InterruptedException {
+    for(;;) {
+      final Entry entry;
+      synchronized(this) {
+        while(mEntries.isEmpty()) {
+          wait();
+        }
+        entry = mEntries.removeFirst();
+        entry.mTaken = true;
+        if(entry.mWd != null) {
+          mMemory -= entry.mSize;
+          return entry.mWd;
+        }
+        mSpilled--;
+      }
+      try {
+        return load(entry.mPath);
+      }
+      catch(IOException ex) {
+        Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+      }
+      if(++entry.mLoadFailures > Common.getSaveRetries()) {
+        Common.getLogger().log(Level.SEVERE, String.format(
+         "Spilled cycle %s was not loaded; it is kept for recovery at startup",
+         entry.mPath));
+        continue;
+      }
+      synchronized(this) {
+        entry.mTaken = false;
+        mEntries.addFirst(entry);
+        mSpilled++;
+      }
+      Thread.sleep(SPILL_RETRY_DELAY);
+    }
+  }
+  
+
+  public synchronized int size() {
+    return mEntries.size();
+  }
+  
+
+  public synchronized int getSpilled() {
+    return mSpilled;
+  }
+  
+
+  public synchronized long getMemory() {
+    return mMemory;
+  }
+  
+
+  public static List<WeldingData> recover(Path spillDir, boolean load)
+     throws IOException {
+    final ArrayList<Path> paths = new ArrayList<>();
+    if(Files.isDirectory(spillDir)) {
+      try (DirectoryStream<Path> stream =
+            Files.newDirectoryStream(spillDir, "*" + SPILL_SUFFIX)) {
+        for(Path path: stream) {
+          paths.add(path);
+        }
+      }
+    }
+    Collections.sort(paths);
+
+    final ArrayList<WeldingData> result = new ArrayList<>();
+    for(Path path: paths) {
+      if(load) {
+        result.add(load(path));
+      }
+      else {
+        Files.delete(path);
+      }
+    }
+    return result;
+  }
+  
+
+  @Override
+  public void run() {
+    try {
+      for(;;) {
+        synchronized(this) {
+          while(mMemory <= mMemoryBudget) {
+            wait();
+          }
+        }
+        if(!spill()) {
+          Thread.sleep(SPILL_RETRY_DELAY);
+        }
+      }
+    }
+    catch(InterruptedException ex) {
+    }
+  }
+  
+
+  public boolean spill() {
+    for(;;) {
+      final Entry entry;
+      final Path path;
+      synchronized(this) {
+        entry = nextSpill();
+        if(entry == null) {
+          return true;
+        }
+        entry.mSpilling = true;
+        path = nextSpillPath();
+      }
+
+      boolean written = false;
+      try {
+        write(path, entry.mWd);
+        written = true;
+      }
+      catch(IOException ex) {
+        Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+      }
+
+      final boolean spilled;
+      synchronized(this) {
+        entry.mSpilling = false;
+        mSpillFailed = !written;
+        spilled = written && !entry.mTaken;
+        if(spilled) {
+          entry.mPath = path;
+          entry.mWd = null;
+          mMemory -= entry.mSize;
+          mSpilled++;
+        }
+      }
+      if(!spilled) {
+        try {
+          Files.deleteIfExists(path);
+        }
+        catch(IOException ex) {
+          Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+        }
+        if(!written) {
+          return false;
+        }
+      }
+    }
+  }
+  
+
+  private Entry nextSpill() {
+    if(mMemory > mMemoryBudget) {
+      for(Entry entry: mEntries) {
+        if(entry.mWd != null && !entry.mSpilling) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+  
+
+  private Path nextSpillPath() {
+    return mSpillDir.resolve(String.format("%016x-%s%s",
+     mNextSpill++, mSpillPrefix, SPILL_SUFFIX));
+  }
+  
+
+  private void write(Path path, WeldingData wd) throws IOException {
+    Files.createDirectories(mSpillDir);
+    try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(path)))) {
+      wd.write(out);
+    }
+  }
+  
+
+  private static WeldingData load(Path path) throws IOException {
+    final WeldingData wd;
+    try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(path)))) {
+      wd = WeldingData.read(in);
+    }
+    Files.delete(path);
+    return wd;
+  }
+}
@@ -1,31 +1,59 @@
 package jwna;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.management.JMException;
 
 
 public final class Server {
   private static final int SOCK_PORT           = 10000;
   private static final int SOCK_TIMEOUT        = 5000;
+  private static final int NIO_READ_BUFF_SIZE  = 0x10000;
+  private static final int WRITE_BATCH_MAX     = 32;
+  private static final int INFLATE_BUFF_SIZE   = 0x4000;
+  private static final int INFLATE_RATIO_MAX   = 1032;
+  private static final long SAVE_RETRY_DELAY   = 1000;
         
   private static final int PACKET_FAST_KEY     = 0x01230123;
   private static final int PACKET_KEY_LENGTH   = 10;
   private static final byte[] PACKET_KEY       = new byte[PACKET_KEY_LENGTH];
   private static final byte[] PACKET_SUCCEEDED = {(byte)0xFF, (byte)0xFF};
+  private static final byte[] PACKET_DEFERRED  = {};
   
   private static final int PACKET_ID_BEGIN_REQUEST = 1;
   private static final int PACKET_ID_END_REQUEST   = 2;
   private static final int PACKET_ID_WRITE_DATA    = 3;
   private static final int PACKET_ID_WRITE_MSG     = 4;
   private static final int PACKET_ID_WRITE_PARAM   = 5;
+  private static final int PACKET_ID_APPEND_PARAM  = 6;
+  private static final int PACKET_ID_WRITE_DATA_Z   = 7;
+  private static final int PACKET_ID_WRITE_PARAM_Z  = 8;
+  private static final int PACKET_ID_APPEND_PARAM_Z = 9;
   
   static {
     final String key = "WELDING";
@@ -41,8 +69,13 @@ public final class Server {
   
   private static final Server sInstance = new Server();
   private ServerSocket mServerSock;
-  private final LinkedBlockingQueue<WeldingData> mWeldingDataQueue = 
-   new LinkedBlockingQueue<>();       
+  private ServerSocketChannel mServerChannel;
+  private SaveThread[] mSaveThreads;
+  private WriteThread mWriteThread;
+  private Journal mJournal;
+  private final ConcurrentHashMap<String, Integer> mSavePartitions =
+   new ConcurrentHashMap<>();
+  private final AtomicInteger mNextSavePartition = new AtomicInteger();
   private final Charset mActiveCharset = Charset.forName("windows-1251");
   
 
@@ -68,8 +101,41 @@ public final class Server {
   public void startup() throws IOException {
     System.out.print("Starting... ");
     
-    mServerSock = new ServerSocket(SOCK_PORT);        
-    new Thread(new SaveThread()).start();
+    if(Common.ENGINE_NIO.equals(Common.getServerEngine())) {
+      mServerChannel = ServerSocketChannel.open();
+      mServerChannel.bind(new InetSocketAddress(SOCK_PORT));
+    }
+    else {
+      mServerSock = new ServerSocket(SOCK_PORT);
+    }
+    mWriteThread = new WriteThread();
+    new Thread(mWriteThread).start();
+    mSaveThreads = new SaveThread[Common.getSaveThreads()];
+    for(int i = 0; i < mSaveThreads.length; i++) {
+      mSaveThreads[i] = new SaveThread(i);
+      new Thread(mSaveThreads[i]).start();
+    }
+    
+    final boolean journal = Common.getJournal();
+    for(WeldingData wd: SaveQueue.recover(Paths.get(Common.getSpillPath()),
+         !journal)) {
+      queueWeldingData(wd);
+    }
+    if(journal) {
+      mJournal = new Journal(Paths.get(Common.getJournalPath()),
+       Common.getJournalSegmentSize());
+      for(Journal.Cycle cycle: mJournal.open()) {
+        replay(cycle);
+      }
+      new Thread(mJournal).start();
+    }
+    
+    try {
+      Metrics.getInstance().start(Common.getMetricsInterval());
+    }
+    catch(JMException ex) {
+      logException(ex);
+    }
     
     System.out.println("Done.");
   }
@@ -78,11 +144,43 @@ public final class Server {
   public void run() {    
     System.out.println("Running...");
     
+    if(mServerChannel != null) {
+      runNio();
+      return;
+    }
+
     while(true) {
       try {
         final Socket s = mServerSock.accept();
         new Thread(new CommThread(s)).start();
       }
+      catch(Exception ex) {
+        logException(ex);
+      }
+    }
+  }
+  
+
+  private void runNio() {
+    final NioThread[] ioThreads = new NioThread[Common.getIoThreads()];
+    try {
+      for(int i = 0; i < ioThreads.length; i++) {
+        ioThreads[i] = new NioThread();
+        new Thread(ioThreads[i]).start();
+      }
+    }
+    catch(IOException ex) {
+      logException(ex);
+      return;
+    }
+
+    int next = 0;
+    while(true) {
+      try {
+        final SocketChannel channel = mServerChannel.accept();
+        ioThreads[next].add(channel);
+        next = (next + 1) % ioThreads.length;
+      }
       catch(Exception ex) {   
         logException(ex);
       }
@@ -110,6 +208,107 @@ public final class Server {
   }
   
 
+  private void replay(Journal.Cycle cycle) throws IOException {
+    try {
+      queueWeldingData(decode(cycle.getId(), cycle.getIp(),
+       cycle.getPackets()));
+    }
+    catch(Exception ex) {
+      logException(ex);
+      mJournal.saved(cycle.getId());
+    }
+  }
+  
+
+  WeldingData decode(long journalId, String ip, List<byte[]> packets)
+     throws IOException {
+    final Session session = new Session(journalId);
+    final WeldingData wd = session.getWeldingData();
+    wd.setIpAddr(ip);
+    final FrameDecoder decoder = new FrameDecoder();
+    try {
+      for(byte[] packet: packets) {
+        session.setup(decoder);
+        final ByteBuffer src = ByteBuffer.wrap(packet);
+        if(!decoder.feed(src) || src.hasRemaining()) {
+          throw new CommException("Field length is not equal request length");
+        }
+        session.exec(decoder.getBuffer(), decoder.getLength());
+      }
+    }
+    finally {
+      session.close();
+    }
+    return wd;
+  }
+  
+
+  private void queueWeldingData(WeldingData wd) {
+    getSaveThread(wd).put(wd);
+  }
+  
+
+  private void acceptWeldingData(WeldingData wd) throws IOException {
+    if(!getSaveThread(wd).offer(wd)) {
+      if(wd.getJournalId() != 0) {
+        mJournal.abandon(wd.getJournalId());
+      }
+      throw new CommException("Save queue is over its memory budget");
+    }
+  }
+  
+
+  private SaveThread getSaveThread(WeldingData wd) {
+    final Integer partition = mSavePartitions.computeIfAbsent(getSaveKey(wd),
+     key -> mNextSavePartition.getAndIncrement() % mSaveThreads.length);
+    return mSaveThreads[partition];
+  }
+  
+
+  private void saveFailed(WeldingData wd, long start, boolean release) {
+    final String msg;
+    if(release) {
+      msg = "Cycle from %s was not converted and is dropped";
+      if(wd.getJournalId() != 0) {
+        try {
+          mJournal.saved(wd.getJournalId());
+        }
+        catch(IOException ex) {
+          logException(ex);
+        }
+      }
+    }
+    else if(wd.getJournalId() != 0) {
+      msg = "Cycle from %s was not saved; it is kept in the journal"
+       + " and replayed at startup";
+    }
+    else if(getSaveThread(wd).keep(wd)) {
+      msg = "Cycle from %s was not saved; it is kept in the spill folder"
+       + " and recovered at startup";
+    }
+    else {
+      msg = "Cycle from %s was not saved and is dropped";
+    }
+    Common.getLogger().log(Level.SEVERE, String.format(msg, wd.getIpAddr()));
+    Metrics.getInstance().cycleSaved(getSaveKey(wd),
+     System.nanoTime() - start, true);
+  }
+  
+
+  private static void sleepRetry(int attempt) throws InterruptedException {
+    Thread.sleep(SAVE_RETRY_DELAY << Math.min(attempt - 1, 6));
+  }
+  
+
+  private static String getSaveKey(WeldingData wd) {
+    final Common.Stan stan = Common.getStan(wd.getIpAddr());
+    if(stan == null) {
+      return wd.getIpAddr();
+    }
+    return stan.getSize() + "/" + stan.getType() + stan.getNumber();
+  }
+  
+
   private void logException(Exception ex) {
     final Logger logger = Common.getLogger();
     logger.log(Level.SEVERE, ex.getMessage(), ex);    
@@ -118,6 +317,8 @@ public final class Server {
 
   private class CommThread implements Runnable {
     private final Socket mSock;
+    private final FrameDecoder mDecoder = new FrameDecoder();
+    private byte[] mSendBuff = new byte[0x40];
 
     CommThread(Socket sock) {
       mSock = sock;
@@ -126,108 +327,534 @@ public final class Server {
 
     @Override
     public void run() {   
-      final WeldingData wd = new WeldingData();
+      final Session session = new Session();
+      final WeldingData wd = session.getWeldingData();
       
       try (Socket s = mSock) {
         s.setSoTimeout(SOCK_TIMEOUT);
         final String ip = s.getInetAddress().getHostAddress();
         wd.setIpAddr(ip);
+        final InputStream inputStream = s.getInputStream();
+        final OutputStream outputStream = s.getOutputStream();
 
         while(!wd.isLast()) {
-          final byte[] request = recv();
-          final byte[] reply   = exec(request, wd);
+          mDecoder.read(inputStream);
+          final byte[] reply = session.exec(mDecoder.getBuffer(),
+           mDecoder.getLength());
           if(reply == null)
             break;
-          send(reply);
+          session.setup(mDecoder);
+          if(wd.isLast())
+            acceptWeldingData(wd);
+          if(reply != PACKET_DEFERRED)
+            send(outputStream, reply);
         }
-
-        if(wd.isLast())          
-          mWeldingDataQueue.put(wd);        
       }
       catch(Exception ex) {   
         logException(ex);
       }
+      finally {
+        session.close();
+      }
     }
     
 
-    void send(byte[] reply) throws IOException {  
-      final DataOutputStream outputStream =
-       new DataOutputStream(mSock.getOutputStream());
+    void send(OutputStream outputStream, byte[] reply) throws IOException {
       final int sendLen = reply.length;
-      outputStream.writeByte((sendLen)      & 0xFF);
-      outputStream.writeByte((sendLen >> 8) & 0xFF);
-      outputStream.write(reply);     
+      if(mSendBuff.length < sendLen + 2) {
+        mSendBuff = new byte[sendLen + 2];
+      }
+      mSendBuff[0] = (byte)((sendLen)      & 0xFF);
+      mSendBuff[1] = (byte)((sendLen >> 8) & 0xFF);
+      System.arraycopy(reply, 0, mSendBuff, 2, sendLen);
+      outputStream.write(mSendBuff, 0, sendLen + 2);
       outputStream.flush();
     }
+  }
+  
+
+  private class NioThread implements Runnable {
+    private final Selector mSelector;
+    private final ConcurrentLinkedQueue<SocketChannel> mPending =
+     new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<NioConnection> mCommitted =
+     new ConcurrentLinkedQueue<>();
+    private final ByteBuffer mReadBuff =
+     ByteBuffer.allocateDirect(NIO_READ_BUFF_SIZE);
+
+    NioThread() throws IOException {
+      mSelector = Selector.open();
+    }
+    
+
+    void add(SocketChannel channel) {
+      mPending.add(channel);
+      mSelector.wakeup();
+    }
+    
+
+    void committed(NioConnection conn) {
+      mCommitted.add(conn);
+      mSelector.wakeup();
+    }
+    
+
+    @Override
+    public void run() {
+      for(;;) {
+        try {
+          mSelector.select(SOCK_TIMEOUT/5);
+          registerPending();
+          completeCommitted();
+
+          final Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+          while(it.hasNext()) {
+            final SelectionKey key = it.next();
+            it.remove();
+            handle(key);
+          }
+
+          closeExpired();
+        }
+        catch(Exception ex) {
+          logException(ex);
+        }
+      }
+    }
+    
+
+    private void registerPending() {
+      SocketChannel channel;
+      while((channel = mPending.poll()) != null) {
+        try {
+          channel.configureBlocking(false);
+          final NioConnection conn = new NioConnection(this, channel);
+          conn.mKey = channel.register(mSelector, SelectionKey.OP_READ, conn);
+        }
+        catch(Exception ex) {
+          logException(ex);
+          close(channel);
+        }
+      }
+    }
+    
+
+    private void completeCommitted() {
+      NioConnection conn;
+      while((conn = mCommitted.poll()) != null) {
+        try {
+          conn.committed();
+          setInterest(conn.mKey, conn);
+        }
+        catch(Exception ex) {
+          logException(ex);
+          conn.close();
+        }
+      }
+    }
+    
+
+    private void handle(SelectionKey key) {
+      final NioConnection conn = (NioConnection)key.attachment();
+      try {
+        if(key.isValid() && key.isWritable()) {
+          conn.write();
+        }
+        if(key.isValid() && key.isReadable()) {
+          mReadBuff.clear();
+          final int n = conn.mChannel.read(mReadBuff);
+          if(n < 0) {
+            conn.close();
+            return;
+          }
+          mReadBuff.flip();
+          conn.read(mReadBuff);
+        }
+        setInterest(key, conn);
+      }
+      catch(Exception ex) {
+        logException(ex);
+        conn.close();
+      }
+    }
+    
+
+    private void setInterest(SelectionKey key, NioConnection conn) {
+      if(key.isValid()) {
+        key.interestOps(conn.hasPendingWrite()
+         ? SelectionKey.OP_WRITE
+         : SelectionKey.OP_READ);
+      }
+    }
+    
+
+    private void closeExpired() {
+      final long now = System.currentTimeMillis();
+      for(SelectionKey key: mSelector.keys()) {
+        final NioConnection conn = (NioConnection)key.attachment();
+        if(now - conn.mLastActivity > SOCK_TIMEOUT) {
+          logException(new CommException("Connection timed out"));
+          conn.close();
+        }
+      }
+    }
+  }
+  
+
+  private class NioConnection {
+    private final SocketChannel mChannel;
+    private SelectionKey mKey;
+    private final Session mSession = new Session();
+    private final FrameDecoder mDecoder = new FrameDecoder();
+    private ByteBuffer mWriteBuff = ByteBuffer.allocate(0x40);
+    private boolean mCloseAfterWrite;
+    private byte[] mCommitReply;
+    private boolean mCommitForced;
+    private long mLastActivity = System.currentTimeMillis();
+
+    NioConnection(NioThread thread, SocketChannel channel) throws IOException {
+      mChannel = channel;
+      mSession.getWeldingData().setIpAddr(
+       channel.socket().getInetAddress().getHostAddress());
+      mSession.setCommitted(forced -> {
+        mCommitForced = forced;
+        thread.committed(this);
+      });
+    }
+    
+
+    boolean hasPendingWrite() {
+      return mWriteBuff.position() > 0;
+    }
+    
+
+    void read(ByteBuffer src) throws IOException {
+      mLastActivity = System.currentTimeMillis();
+
+      while(src.hasRemaining() && !mCloseAfterWrite && mCommitReply == null) {
+        if(mDecoder.feed(src)) {
+          exec();
+        }
+      }
+    }
+    
+
+    private void exec() throws IOException {
+      final WeldingData wd = mSession.getWeldingData();
+      final byte[] reply = mSession.exec(mDecoder.getBuffer(),
+       mDecoder.getLength());
+      if(reply == null) {
+        close();
+        return;
+      }
+      mSession.setup(mDecoder);
+      if(reply == PACKET_DEFERRED) {
+        return;
+      }
+      if(wd.isLast()) {
+        if(wd.getJournalId() != 0) {
+          mCommitReply = reply;
+          return;
+        }
+        acceptWeldingData(wd);
+        mCloseAfterWrite = true;
+      }
+      send(reply);
+    }
+    
+
+    void committed() throws IOException {
+      final WeldingData wd = mSession.getWeldingData();
+      if(!mCommitForced) {
+        mJournal.abandon(wd.getJournalId());
+        close();
+        return;
+      }
+      acceptWeldingData(wd);
+      if(mChannel.isOpen()) {
+        mCloseAfterWrite = true;
+        send(mCommitReply);
+      }
+    }
+    
+
+    private void send(byte[] reply) throws IOException {
+      final int sendLen = reply.length;
+      if(mWriteBuff.remaining() < sendLen + 2) {
+        final ByteBuffer buff = ByteBuffer.allocate(
+         Math.max(mWriteBuff.capacity()*2, mWriteBuff.position() + sendLen + 2));
+        mWriteBuff.flip();
+        buff.put(mWriteBuff);
+        mWriteBuff = buff;
+      }
+      mWriteBuff.put((byte)(sendLen & 0xFF));
+      mWriteBuff.put((byte)((sendLen >> 8) & 0xFF));
+      mWriteBuff.put(reply);
+      write();
+    }
+    
+
+    void write() throws IOException {
+      mLastActivity = System.currentTimeMillis();
+      if(mWriteBuff.position() > 0) {
+        mWriteBuff.flip();
+        mChannel.write(mWriteBuff);
+        mWriteBuff.compact();
+      }
+      if(mWriteBuff.position() == 0 && mCloseAfterWrite) {
+        close();
+      }
+    }
+    
+
+    void close() {
+      Server.close(mChannel);
+      mSession.close();
+    }
+  }
+  
+
+  private static void close(SocketChannel channel) {
+    try {
+      channel.close();
+    }
+    catch(IOException ex) {
+    }
+  }
+  
+
+  private class Session {
+    private final WeldingData mWd = new WeldingData();
+    private int mLastSeq;
+    private int mUnacked;
+    private final byte[] mBeginAck = new byte[6];
+    private final byte[] mAck = new byte[4];
+    private int mLengthSize = 2;
+    private Inflater mInflater;
+    private byte[] mInflateBuff;
+    private final byte[] mInflateTail = new byte[1];
+    private final boolean mReplay;
+    private Journal.Committed mCommitted;
+    private long mJournalId;
+    private String mStanKey;
+    private boolean mClosed;
+    
+
+    Session() {
+      mReplay = false;
+      Metrics.getInstance().connectionOpened();
+    }
+    
+
+    Session(long journalId) {
+      mReplay = true;
+      mJournalId = journalId;
+    }
+    
+
+    WeldingData getWeldingData() {
+      return mWd;
+    }
+    
+
+    void setCommitted(Journal.Committed committed) {
+      mCommitted = committed;
+    }
+    
+
+    void close() {
+      if(mInflater != null) {
+        mInflater.end();
+        mInflater = null;
+      }
+      if(mJournalId != 0 && !mReplay && !mWd.isLast()) {
+        mJournal.abandon(mJournalId);
+        mJournalId = 0;
+      }
+      if(!mReplay && !mClosed) {
+        mClosed = true;
+        Metrics.getInstance().connectionClosed();
+      }
+    }
     
 
-    byte[] recv() throws IOException {
-      final DataInputStream inputStream = 
-       new DataInputStream(mSock.getInputStream());
+    void setup(FrameDecoder decoder) {
+      decoder.setLengthSize(mLengthSize);
+      decoder.setMaxLength(mLengthSize == 2
+       ? 0x10000 + mLengthSize
+       : Common.getMaxPacketSize());
+    }
+    
+
+    byte[] exec(byte[] request, int requestLen) throws IOException {
+      final long start = System.nanoTime();
+      final int lengthSize = mLengthSize;
+      if(mJournal != null && !mReplay) {
+        if(mJournalId == 0) {
+          mJournalId = mJournal.begin(mWd.getIpAddr());
+        }
+        mJournal.append(mJournalId, request, requestLen);
+      }
       
-      final byte[] packetLenBuff = new byte[2];
-      for(int i = 0; i < packetLenBuff.length; i++)
-        packetLenBuff[i] = inputStream.readByte();
-      final int recvLen = bytesToU16(packetLenBuff);
+      final byte[] reply = exec(request, requestLen, mWd);
       
-      final byte[] packetBodyBuff = new byte[recvLen + packetLenBuff.length];
-      inputStream.readFully(packetBodyBuff, packetLenBuff.length, recvLen);
-      System.arraycopy(packetLenBuff, 0, packetBodyBuff, 0, packetLenBuff.length);
-      return packetBodyBuff;
+      if(mJournalId != 0 && mWd.isLast()) {
+        if(mCommitted != null) {
+          mJournal.commit(mJournalId, mCommitted);
+        }
+        else if(!mReplay) {
+          try {
+            mJournal.commit(mJournalId);
+          }
+          catch(IOException ex) {
+            mJournal.abandon(mJournalId);
+            mJournalId = 0;
+            throw ex;
+          }
+        }
+        mWd.setJournalId(mJournalId);
+      }
+      
+      if(!mReplay) {
+        if(mStanKey == null) {
+          mStanKey = getSaveKey(mWd);
+        }
+        Metrics.getInstance().packetReceived(
+         bytesToU16(request, lengthSize + 6), requestLen, mStanKey,
+         System.nanoTime() - start);
+      }
+      return reply;
     }
     
 
-    byte[] exec(byte[] request, WeldingData wd) throws IOException {
-      final int requestLen = request.length;
-      if(requestLen != bytesToU16(request) + 2) {        
+    byte[] exec(byte[] request, int requestLen, WeldingData wd)
+       throws IOException {
+      final int lengthSize = mLengthSize;
+      final long fieldLen = lengthSize == 2
+       ? bytesToU16(request)
+       : bytesToU32(request, 0) & 0xFFFFFFFFL;
+      if(requestLen != fieldLen + lengthSize) {
         throw new CommException("Field length is not equal request length");
       }
       
-      if(PACKET_FAST_KEY != bytesToU32(request, 2)) {  
+      if(requestLen < lengthSize + 8) {
+        throw new CommException("Packet header is too short");
+      }
+
+      if(PACKET_FAST_KEY != bytesToU32(request, lengthSize)) {
         throw new CommException("Wrong fast key");
       }
       
-      final int version = bytesToU16(request, 6);
+      final int version = bytesToU16(request, lengthSize + 4);
       switch(version) {
         case 0x1_00:
         case 0x1_10: 
+        case 0x1_20:
+        case 0x1_30:
+        case 0x1_40:
           break;
         default:
           throw new CommException("Version is not supported");
       }
       wd.setVersion(version);
       
-      final int packetId     = bytesToU16(request, 8);
-      final int packetOffset = 10;
+      final int packetId = bytesToU16(request, lengthSize + 6);
+      int packetOffset = lengthSize + 8;
+      int seq = 0;
+      if(version >= 0x1_20) {
+        if(requestLen < packetOffset + 2) {
+          throw new CommException("Sequence number is missing");
+        }
+        seq = bytesToU16(request, packetOffset);
+        packetOffset += 2;
+      }
       byte[] reply = null;
       
       switch(packetId) {
         case PACKET_ID_BEGIN_REQUEST:
-          reply = execBeginRequest(wd, request, packetOffset);
+          reply = execBeginRequest(wd, request, packetOffset, requestLen);
           break;
         case PACKET_ID_END_REQUEST:
-          reply = execEndRequest(wd, request, packetOffset);
+          reply = execEndRequest(wd, request, packetOffset, requestLen);
           break;
         case PACKET_ID_WRITE_DATA:
-          reply = execWriteData(wd, request, packetOffset);
+          reply = execWriteData(wd, request, packetOffset, requestLen);
           break;
         case PACKET_ID_WRITE_MSG:
-          reply = execWriteMsg(wd, request, packetOffset);
+          reply = execWriteMsg(wd, request, packetOffset, requestLen);
           break;
         case PACKET_ID_WRITE_PARAM:
-          reply = execWriteParam(wd, request, packetOffset);
+          reply = execWriteParam(wd, request, packetOffset, requestLen);
+          break;
+        case PACKET_ID_APPEND_PARAM:
+          if(version < 0x1_30) {
+            throw new CommException("Unknown packet");
+          }
+          reply = execAppendParam(wd, request, packetOffset, requestLen);
+          break;
+        case PACKET_ID_WRITE_DATA_Z:
+          if(version < 0x1_40) {
+            throw new CommException("Unknown packet");
+          }
+          reply = execWriteDataZ(wd, request, packetOffset, requestLen);
+          break;
+        case PACKET_ID_WRITE_PARAM_Z:
+        case PACKET_ID_APPEND_PARAM_Z:
+          if(version < 0x1_40) {
+            throw new CommException("Unknown packet");
+          }
+          reply = execWriteParamZ(wd, request, packetOffset, requestLen,
+           packetId == PACKET_ID_APPEND_PARAM_Z);
           break;
         default:
           throw new CommException("Unknown packet");
       }
       
+      if(version >= 0x1_20) {
+        reply = ack(packetId, seq);
+      }
+
       return reply;
     }
     
 
-    private byte[] execBeginRequest(WeldingData wd, byte[] request, int offset) 
-       throws IOException {
-      final int packetLen = request.length - offset;
+    private byte[] ack(int packetId, int seq) throws IOException {
+      if(packetId != PACKET_ID_BEGIN_REQUEST && seq != ((mLastSeq + 1) & 0xFFFF)) {
+        throw new CommException("Wrong sequence number");
+      }
+      mLastSeq = seq;
+
+      final int window = Common.getAckWindow();
+      switch(packetId) {
+        case PACKET_ID_BEGIN_REQUEST:
+          mUnacked = 0;
+          mBeginAck[0] = PACKET_SUCCEEDED[0];
+          mBeginAck[1] = PACKET_SUCCEEDED[1];
+          mBeginAck[2] = (byte)(seq & 0xFF);
+          mBeginAck[3] = (byte)((seq >> 8) & 0xFF);
+          mBeginAck[4] = (byte)(window & 0xFF);
+          mBeginAck[5] = (byte)((window >> 8) & 0xFF);
+          return mBeginAck;
+        case PACKET_ID_END_REQUEST:
+          break;
+        default:
+          if(++mUnacked < window) {
+            return PACKET_DEFERRED;
+          }
+      }
+
+      mUnacked = 0;
+      mAck[0] = PACKET_SUCCEEDED[0];
+      mAck[1] = PACKET_SUCCEEDED[1];
+      mAck[2] = (byte)(seq & 0xFF);
+      mAck[3] = (byte)((seq >> 8) & 0xFF);
+      return mAck;
+    }
+    
+
+    private byte[] execBeginRequest(WeldingData wd, byte[] request, int offset,
+       int requestLen) throws IOException {
+      final int packetLen = requestLen - offset;
       boolean keyOk = packetLen >= PACKET_KEY_LENGTH;
       if(keyOk) {
         for(int i = 0; i < PACKET_KEY_LENGTH; i++) {
@@ -246,8 +873,15 @@ public final class Server {
       final StringBuilder builder = new StringBuilder();
       
       switch(wd.getVersion()) {
-        case 0x1_10: {
+        case 0x1_10:
+        case 0x1_20:
+        case 0x1_30:
+        case 0x1_40: {
           final int pipeNumberFieldLen = 20;
+          final int pipeThicknessLen = 20;
+          if(requestLen - offset < pipeNumberFieldLen + pipeThicknessLen) {
+            throw new CommException("Begin request is too short");
+          }
           for(int i = 0; i < pipeNumberFieldLen; i++) {
             final char ch = (char)request[offset + i];
             if(ch == 0)
@@ -258,7 +892,6 @@ public final class Server {
           offset += pipeNumberFieldLen;
           builder.setLength(0);
           
-          final int pipeThicknessLen = 20;
           for(int i = 0; i < pipeThicknessLen; i++) {
             final char ch = (char)request[offset + i];
             if(ch == 0)
@@ -268,14 +901,18 @@ public final class Server {
           wd.setPipeThickness(builder.toString());          
         }
       }
+
+      if(wd.getVersion() >= 0x1_30) {
+        mLengthSize = 4;
+      }
       
       return PACKET_SUCCEEDED;
     }
     
 
-    private byte[] execEndRequest(WeldingData wd, byte[] request, int offset)
-       throws IOException {
-      final int packetLen = request.length - offset;
+    private byte[] execEndRequest(WeldingData wd, byte[] request, int offset,
+       int requestLen) throws IOException {
+      final int packetLen = requestLen - offset;
       if(packetLen != 0) {   
         throw new CommException("");
       }
@@ -284,46 +921,368 @@ public final class Server {
     }
     
 
-    private byte[] execWriteData(WeldingData wd, byte[] request, int offset) {
-      final int dataLen = request.length - offset;
-      wd.setData(new String(request, offset, dataLen, mActiveCharset));
+    private byte[] execWriteData(WeldingData wd, byte[] request, int offset,
+       int requestLen) {
+      final int dataLen = requestLen - offset;
+      wd.setData(Arrays.copyOfRange(request, offset, offset + dataLen),
+       mActiveCharset);
       return PACKET_SUCCEEDED;
     }
     
 
-    private byte[] execWriteMsg(WeldingData wd, byte[] request, int offset) {
-      final byte[] msg = Arrays.copyOfRange(request, offset, request.length);
+    private byte[] execWriteMsg(WeldingData wd, byte[] request, int offset,
+       int requestLen) {
+      final byte[] msg = Arrays.copyOfRange(request, offset, requestLen);
       wd.setMsg(msg); 
       return PACKET_SUCCEEDED;
     }
     
 
-    private byte[] execWriteParam(WeldingData wd, byte[] request, int offset) {
-      final int prm = request[offset];
-      final int con = request[offset + 1];
+    private byte[] execWriteParam(WeldingData wd, byte[] request, int offset,
+       int requestLen) throws IOException {
+      if(requestLen - offset < 2) {
+        throw new CommException("Parameter is not specified");
+      }
+      final int key = WeldingData.getParamKey(request[offset],
+       request[offset + 1]);
+      offset += 2;
+      wd.setParam(key, request, offset, requestLen - offset);      
+      return PACKET_SUCCEEDED;
+    }    
+    
+
+    private byte[] execAppendParam(WeldingData wd, byte[] request, int offset,
+       int requestLen) throws IOException {
+      if(requestLen - offset < 2) {
+        throw new CommException("Parameter is not specified");
+      }
+      final int key = WeldingData.getParamKey(request[offset],
+       request[offset + 1]);
+      offset += 2;
+      wd.appendParam(key, request, offset, requestLen - offset);
+      return PACKET_SUCCEEDED;
+    }    
+    
+
+    private byte[] execWriteDataZ(WeldingData wd, byte[] request, int offset,
+       int requestLen) throws IOException {
+      final int rawLen = startInflate(request, offset, requestLen);
+      byte[] data = new byte[Math.min(rawLen, INFLATE_BUFF_SIZE)];
+      int n = 0;
+      for(;;) {
+        if(n == data.length) {
+          if(n == rawLen) {
+            break;
+          }
+          data = Arrays.copyOf(data, (int)Math.min(rawLen, 2L*n));
+        }
+        final int k = inflate(data, n, data.length - n);
+        if(k == 0) {
+          break;
+        }
+        n += k;
+      }
+      finishInflate(n, rawLen);
+      wd.setData(data, mActiveCharset);
+      return PACKET_SUCCEEDED;
+    }
+    
+
+    private byte[] execWriteParamZ(WeldingData wd, byte[] request, int offset,
+       int requestLen, boolean append) throws IOException {
+      if(requestLen - offset < 2) {
+        throw new CommException("Parameter is not specified");
+      }
+      final int key = WeldingData.getParamKey(request[offset],
+       request[offset + 1]);
       offset += 2;
-      final byte[] paramData = Arrays.copyOfRange(request, offset, request.length);
-      wd.setParam(Integer.toString(prm) + "_" + Integer.toString(con),
-                  paramData);      
+      final int rawLen = startInflate(request, offset, requestLen);
+      final byte[] buff = mInflateBuff;
+      if(!append) {
+        wd.setParam(key, buff, 0, 0);
+      }
+      int n = 0;
+      for(;;) {
+        final int k = inflate(buff, 0, Math.min(buff.length, rawLen - n));
+        if(k == 0) {
+          break;
+        }
+        wd.appendParam(key, buff, 0, k);
+        n += k;
+      }
+      finishInflate(n, rawLen);
       return PACKET_SUCCEEDED;
+    }
+    
+
+    private int startInflate(byte[] request, int offset, int requestLen)
+       throws IOException {
+      if(requestLen - offset < 4) {
+        throw new CommException("Uncompressed length is not specified");
+      }
+      final long rawLen = bytesToU32(request, offset) & 0xFFFFFFFFL;
+      offset += 4;
+      if(rawLen > Common.getMaxPacketSize()
+         || rawLen > (long)(requestLen - offset)*INFLATE_RATIO_MAX) {
+        throw new CommException("Uncompressed data is too long");
+      }
+
+      if(mInflater == null) {
+        mInflater = new Inflater();
+        mInflateBuff = new byte[INFLATE_BUFF_SIZE];
+      }
+      else {
+        mInflater.reset();
+      }
+      mInflater.setInput(request, offset, requestLen - offset);
+      return (int)rawLen;
+    }
+
+
+    private int inflate(byte[] buff, int offset, int length)
+       throws IOException {
+      try {
+        return mInflater.inflate(buff, offset, length);
+      }
+      catch(DataFormatException ex) {
+        throw new CommException("Wrong compressed data");
+      }
+    }
+    
+
+    private void finishInflate(int n, int rawLen) throws IOException {
+      if(n == rawLen && !mInflater.finished()) {
+        n += inflate(mInflateTail, 0, 1);
+      }
+      if(n != rawLen || !mInflater.finished()) {
+        throw new CommException("Wrong uncompressed length");
+      }
     }    
   }
   
 
   private class SaveThread implements Runnable {
     private final DataSaver mDataSaver = new DataSaver();
+    private final SaveQueue mWeldingDataQueue;
+    
+
+    SaveThread(int index) {
+      mWeldingDataQueue = new SaveQueue(Paths.get(Common.getSpillPath()),
+       "save" + index, Common.getSaveQueueMemory()/mSaveThreads.length);
+      Metrics.getInstance().addQueue(mWeldingDataQueue);
+      new Thread(mWeldingDataQueue).start();
+    }
+    
+
+    void put(WeldingData wd) {
+      mWeldingDataQueue.put(wd);
+    }
+
+    
+    boolean offer(WeldingData wd) {
+      return mWeldingDataQueue.offer(wd);
+    }
+
+    
+    boolean keep(WeldingData wd) {
+      return mWeldingDataQueue.keep(wd);
+    }
+
     
     @Override
     public void run() {
       for(;;) {
+        final WeldingData wd;
         try {
-          final WeldingData wd = mWeldingDataQueue.take();
-          mDataSaver.save(wd);
+          wd = mWeldingDataQueue.take();
+        }
+        catch(Exception ex) {
+          logException(ex);
+          continue;
+        }
+        
+        final long start = System.nanoTime();
+        final DataSaver.Output output;
+        try {
+          output = render(wd);
+        }
+        catch(IOException | InterruptedException ex) {
+          saveFailed(wd, start, false);
+          continue;
         }
         catch(Exception ex) {  
           logException(ex);
+          saveFailed(wd, start, true);
+          continue;
+        }
+        try {
+          mWriteThread.put(new PendingWrite(wd, output, start));
+        }
+        catch(InterruptedException ex) {
+          logException(ex);
+        }
+      }
+    }
+    
+
+    private DataSaver.Output render(WeldingData wd)
+       throws IOException, InterruptedException {
+      for(int attempt = 1; ; attempt++) {
+        try {
+          return mDataSaver.render(wd);
+        }
+        catch(IOException ex) {
+          logException(ex);
+          if(attempt > Common.getSaveRetries()) {
+            throw ex;
+          }
+        }
+        sleepRetry(attempt);
+      }
+    }
+  }
+  
+
+  private static class PendingWrite {
+    private final WeldingData mWd;
+    private final DataSaver.Output mOutput;
+    private final long mStart;
+    private List<Path> mFiles = Collections.emptyList();
+    
+
+    PendingWrite(WeldingData wd, DataSaver.Output output, long start) {
+      mWd = wd;
+      mOutput = output;
+      mStart = start;
+    }
+  }
+  
+
+  private class WriteThread implements Runnable {
+    private final ArrayBlockingQueue<PendingWrite> mQueue =
+     new ArrayBlockingQueue<>(Common.getWriteQueueSize());
+    private final boolean mBatched =
+     Common.DURABILITY_BATCHED.equals(Common.getDurability());
+    private final boolean mForce =
+     Common.DURABILITY_PER_FILE.equals(Common.getDurability());
+    private final ArrayList<PendingWrite> mBatch = new ArrayList<>();
+    private final ArrayList<Path> mBatchFiles = new ArrayList<>();
+    private final boolean[] mBatchFailed = new boolean[WRITE_BATCH_MAX];
+    
+
+    void put(PendingWrite write) throws InterruptedException {
+      mQueue.put(write);
+    }
+
+    
+    @Override
+    public void run() {
+      for(;;) {
+        final PendingWrite write;
+        try {
+          write = mBatch.isEmpty() ? mQueue.take() : mQueue.poll();
+        }
+        catch(InterruptedException ex) {
+          logException(ex);
+          continue;
+        }
+        if(write == null) {
+          flush();
+          continue;
+        }
+        
+        try {
+          if(write.mOutput != null) {
+            write.mFiles = DataSaver.writeTemp(write.mOutput, mForce);
+          }
+          if(!mBatched) {
+            DataSaver.publish(write.mFiles, mForce);
+          }
+        }
+        catch(Exception ex) {  
+          logException(ex);
+          flush();
+          done(write, !retry(write));
+          continue;
+        }
+        if(mBatched) {
+          mBatch.add(write);
+          if(mBatch.size() >= WRITE_BATCH_MAX) {
+            flush();
+          }
+        }
+        else {
+          done(write, false);
+        }
+      }
+    }
+    
+
+    private void flush() {
+      for(int i = 0; i < mBatch.size(); i++) {
+        final PendingWrite write = mBatch.get(i);
+        try {
+          DataSaver.forceFiles(write.mFiles);
+          DataSaver.publish(write.mFiles, false);
+          mBatchFailed[i] = false;
+          mBatchFiles.addAll(write.mFiles);
+        }
+        catch(Exception ex) {  
+          logException(ex);
+          DataSaver.discard(write.mFiles);
+          mBatchFailed[i] = !retry(write);
+        }
+      }
+      DataSaver.forceDirectories(mBatchFiles);
+      for(int i = 0; i < mBatch.size(); i++) {
+        done(mBatch.get(i), mBatchFailed[i]);
+      }
+      mBatch.clear();
+      mBatchFiles.clear();
+    }
+    
+
+    private boolean retry(PendingWrite write) {
+      final boolean sync = mForce || mBatched;
+      for(int attempt = 1; attempt <= Common.getSaveRetries(); attempt++) {
+        try {
+          sleepRetry(attempt);
+          if(write.mOutput != null) {
+            write.mFiles = DataSaver.writeTemp(write.mOutput, sync);
+          }
+          DataSaver.publish(write.mFiles, sync);
+          return true;
+        }
+        catch(InterruptedException ex) {
+          logException(ex);
+          return false;
+        }
+        catch(Exception ex) {  
+          logException(ex);
+        }
+      }
+      return false;
+    }
+    
+
+    private void done(PendingWrite write, boolean writeFailed) {
+      final WeldingData wd = write.mWd;
+      if(writeFailed) {
+        saveFailed(wd, write.mStart, false);
+        return;
+      }
+      boolean failed = false;
+      if(wd.getJournalId() != 0) {
+        try {
+          mJournal.saved(wd.getJournalId());
+        }
+        catch(IOException ex) {
+          failed = true;
+          logException(ex);
         }
       }
+      Metrics.getInstance().cycleSaved(getSaveKey(wd),
+       System.nanoTime() - write.mStart, failed);
     }
   }
   
@@ -0,0 +1,91 @@
+package jwna;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+public class TemplateCache {
+  private static final TemplateCache sInstance = new TemplateCache();
+  private final ConcurrentHashMap<Path, Template> mTemplates =
+   new ConcurrentHashMap<>();
+  
+
+  private static class Template {
+    private final byte[] mBytes;
+    private final FileTime mModified;
+    private final long mSize;
+    private volatile BiffTemplate mBiff;
+    
+
+    private Template(byte[] bytes, FileTime modified, long size) {
+      mBytes = bytes;
+      mModified = modified;
+      mSize = size;
+    }
+  }
+  
+
+  public static TemplateCache getInstance() {
+    return sInstance;
+  }
+  
+
+  public void preload(Path path) {
+    try {
+      get(path);
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+    }
+  }
+  
+
+  public void preloadBiff(Path path) {
+    try {
+      getBiffTemplate(path);
+    }
+    catch(IOException ex) {
+      Common.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+    }
+  }
+  
+
+  public byte[] get(Path path) throws IOException {
+    return getTemplate(path).mBytes;
+  }
+  
+
+  public BiffTemplate getBiffTemplate(Path path) throws IOException {
+    final Template template = getTemplate(path);
+    BiffTemplate biff = template.mBiff;
+    if(biff == null) {
+      biff = BiffTemplate.parse(template.mBytes);
+      template.mBiff = biff;
+    }
+    return biff;
+  }
+  
+
+  private Template getTemplate(Path path) throws IOException {
+    final BasicFileAttributes attrs =
+     Files.readAttributes(path, BasicFileAttributes.class);
+    Template template = mTemplates.get(path);
+    if(template == null
+       || !template.mModified.equals(attrs.lastModifiedTime())
+       || template.mSize != attrs.size()) {
+      template = new Template(Files.readAllBytes(path),
+       attrs.lastModifiedTime(), attrs.size());
+      mTemplates.put(path, template);
+    }
+    return template;
+  }
+  
+
+  public void clear() {
+    mTemplates.clear();
+  }
+}
@@ -1,22 +1,38 @@
 package jwna;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.Map;
-import java.util.TreeMap;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
 
 public class WeldingData {
-  private static final String[] EMPTY_DATA_LINES = new String[0];    
+  private static final int[] EMPTY_DATA_LINES = new int[0];    
   private boolean mLast = false;
   private String mIpAddr;
   private Integer mVersion;
-  private String mData;
-  private String[] mDataLines = EMPTY_DATA_LINES;
+  private byte[] mData;
+  private Charset mDataCharset = StandardCharsets.UTF_8;
+  private int[] mDataLines = EMPTY_DATA_LINES;
+  private DataValue[] mDataValues;
+  private HashMap<String, Integer> mDataIndex;
+  private HashMap<String, ArrayList<Integer>> mDataGroups;
   private byte[] mMsg;
-  private final TreeMap<String, byte[]> mParams = new TreeMap<>();
-  private HSSFWorkbook mWorkbook;
-  private HSSFSheet[] mSheets;
+  private final ParamColumn[][] mParamTable = new ParamColumn[256][];
+  private final ArrayList<ParamColumn> mParams = new ArrayList<>();
+  private final List<ParamColumn> mParamList =
+   Collections.unmodifiableList(mParams);
+  private Workbook mWorkbook;
+  private Sheet[] mSheets;
+  private BiffWorkbook mBiffWorkbook;
   private int mRows = 0;
   private int mStep = 3;
   private String mPipeNumber;
@@ -28,6 +44,7 @@ public class WeldingData {
   private LocalDateTime mDate;
   private String mDstFilePath;
   private String mDstFileName;
+  private long mJournalId;
   
 
   public boolean isLast() {
@@ -40,6 +57,16 @@ public class WeldingData {
   }  
   
 
+  public long getJournalId() {
+    return mJournalId;
+  }
+  
+
+  public void setJournalId(long newJournalId) {
+    mJournalId = newJournalId;
+  }  
+  
+
   public String getIpAddr() {
     return mIpAddr;
   }
@@ -61,25 +88,154 @@ public class WeldingData {
   
 
   public String getData() {
-    return mData;
+    return mData == null ? null : new String(mData, mDataCharset);
   }
   
 
   public void setData(String newData) {
+    setData(newData == null
+     ? null
+     : newData.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+  }
+  
+
+  public void setData(byte[] newData, Charset charset) {
     mData = newData;    
-    if(mData == null) {
-      mDataLines = EMPTY_DATA_LINES;
+    mDataCharset = charset;
+    mDataLines = mData == null ? EMPTY_DATA_LINES : splitDataLines(mData);
+    mDataValues = null;
+    mDataIndex = null;
+    mDataGroups = null;
+  }
+  
+
+  private static int[] splitDataLines(byte[] data) {
+    int[] lines = new int[64];
+    int n = 0;
+    int start = 0;
+    boolean split = false;
+    while(true) {
+      int end = start;
+      while(end < data.length && data[end] != '\r' && data[end] != '\n') {
+        end++;
+      }
+      if(n + 2 > lines.length) {
+        lines = Arrays.copyOf(lines, lines.length*2);
+      }
+      lines[n++] = start;
+      lines[n++] = end;
+      if(end == data.length) {
+        break;
+      }
+      split = true;
+      start = end;
+      while(start < data.length
+         && (data[start] == '\r' || data[start] == '\n')) {
+        start++;
+      }
+      for(int i = (start - end + 1)/2 - 1; i > 0; i--) {
+        if(n + 2 > lines.length) {
+          lines = Arrays.copyOf(lines, lines.length*2);
+        }
+        lines[n++] = start;
+        lines[n++] = start;
+      }
     }
-    else {
-      mDataLines = mData.replace("\015", "\012")
-                        .replace("\012\012", "\012")
-                        .split("\012");     
+    if(split) {
+      while(n > 0 && lines[n - 2] == lines[n - 1]) {
+        n -= 2;
+      }
     }
+    return Arrays.copyOf(lines, n);
+  }
+  
+
+  private String decodeData(int start, int end) {
+    return new String(mData, start, end - start, mDataCharset);
+  }
+  
+
+  private int indexOfData(byte b, int start, int end) {
+    for(int i = start; i < end; i++) {
+      if(mData[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+
+  private void indexDataLines() {
+    if(mDataIndex != null) {
+      return;
+    }
+    mDataIndex = new HashMap<>();
+    mDataGroups = new HashMap<>();
+    mDataValues = new DataValue[mDataLines.length/2];
+    for(int i = 0; i < mDataLines.length; i += 2) {
+      final int start = mDataLines[i];
+      final int end = mDataLines[i + 1];
+      final int index = indexOfData((byte)'=', start, end);
+      if(index >= 0) {
+        mDataIndex.putIfAbsent(decodeData(start, index), i/2);
+      }
+      final int dash1 = indexOfData((byte)'-', start, end);
+      final int dash2 = dash1 < 0 ? -1 : indexOfData((byte)'-', dash1 + 1, end);
+      if(dash2 >= 0) {
+        final String group = decodeData(start, dash2 + 1);
+        ArrayList<Integer> lines = mDataGroups.get(group);
+        if(lines == null) {
+          lines = new ArrayList<>();
+          mDataGroups.put(group, lines);
+        }
+        lines.add(i/2);
+      }
+    }
+  }
+  
+
+  private DataValue getDataLineValue(int line) {
+    DataValue value = mDataValues[line];
+    if(value == null) {
+      final int start = mDataLines[2*line];
+      final int end = mDataLines[2*line + 1];
+      final int index = indexOfData((byte)'=', start, end);
+      value = index < 0
+       ? DataValue.EMPTY
+       : DataValue.parse(decodeData(index + 1, end));
+      mDataValues[line] = value;
+    }
+    return value;
   }
   
 
   public String[] getDataLines() {
-    return mDataLines;
+    final String[] lines = new String[mDataLines.length/2];
+    for(int i = 0; i < lines.length; i++) {
+      lines[i] = decodeData(mDataLines[2*i], mDataLines[2*i + 1]);
+    }
+    return lines;
+  }
+  
+
+  public DataValue getDataValue(String name) {
+    indexDataLines();
+    final Integer line = mDataIndex.get(name);
+    return line == null ? null : getDataLineValue(line);
+  }
+  
+
+  public List<DataValue> getDataGroup(String prefix) {
+    indexDataLines();
+    final ArrayList<Integer> lines = mDataGroups.get(prefix);
+    if(lines == null) {
+      return Collections.<DataValue>emptyList();
+    }
+    final ArrayList<DataValue> values = new ArrayList<>(lines.size());
+    for(int line: lines) {
+      values.add(getDataLineValue(line));
+    }
+    return values;
   }
   
 
@@ -93,41 +249,146 @@ public class WeldingData {
   }
   
 
-  public Map<String, byte[]> getParams() {
-    return mParams;
+  public static int getParamKey(int prm, int con) {
+    return (prm & 0xFF) << 8 | (con & 0xFF);
+  }
+  
+
+  public static int getParamKey(String field) {
+    final int index = field.indexOf('_');
+    if(index < 0) {
+      return -1;
+    }
+    try {
+      final int prm = Integer.parseInt(field.substring(0, index));
+      final int con = Integer.parseInt(field.substring(index + 1));
+      if(prm < -128 || prm > 255 || con < -128 || con > 255) {
+        return -1;
+      }
+      return getParamKey(prm, con);
+    }
+    catch(NumberFormatException ex) {
+      return -1;
+    }
   }
   
 
+  public static String getParamName(int key) {
+    return Integer.toString((byte)(key >>> 8)) + "_"
+     + Integer.toString((byte)key);
+  }
+  
+
+  public List<ParamColumn> getParams() {
+    return mParamList;
+  }
+  
+
+  public ParamColumn getParamColumn(int key) {
+    final ParamColumn[] row = mParamTable[key >>> 8];
+    return row == null ? null : row[key & 0xFF];
+  }
+  
+
+  public ParamColumn getParamColumn(String field) {
+    final int key = getParamKey(field);
+    return key < 0 ? null : getParamColumn(key);
+  }
+
+  
   public byte[] getParam(String field) {
-    return mParams.get(field);
+    final ParamColumn column = getParamColumn(field);
+    return column == null ? null : column.toBytes();
   }
 
   
   public void setParam(String field, byte[] values) {
-    mParams.put(field, values);  
+    setParam(checkParamKey(field), values, 0, values.length);
+  }
+  
+
+  public void setParam(int key, byte[] values, int offset, int length) {
+    final ParamColumn column = new ParamColumn(key);
+    column.append(values, offset, length);
+    putParam(column);
+  }
+  
+
+  public void appendParam(String field, byte[] values) {
+    appendParam(checkParamKey(field), values, 0, values.length);
+  }
+  
+
+  public void appendParam(int key, byte[] values, int offset, int length) {
+    ParamColumn column = getParamColumn(key);
+    if(column == null) {
+      column = new ParamColumn(key);
+      putParam(column);
+    }
+    column.append(values, offset, length);
   }
   
 
-  public HSSFWorkbook getWorkbook() {
+  private void putParam(ParamColumn column) {
+    final int key = column.getKey();
+    ParamColumn[] row = mParamTable[key >>> 8];
+    if(row == null) {
+      row = new ParamColumn[256];
+      mParamTable[key >>> 8] = row;
+    }
+    final ParamColumn old = row[key & 0xFF];
+    row[key & 0xFF] = column;
+    if(old != null) {
+      mParams.set(mParams.indexOf(old), column);
+      return;
+    }
+    int index = mParams.size();
+    while(index > 0 && mParams.get(index - 1).getKey() > key) {
+      index--;
+    }
+    mParams.add(index, column);
+  }
+  
+
+  private static int checkParamKey(String field) {
+    final int key = getParamKey(field);
+    if(key < 0) {
+      throw new IllegalArgumentException("Bad parameter name: " + field);
+    }
+    return key;
+  }
+  
+
+  public Workbook getWorkbook() {
     return mWorkbook;
   }
   
 
-  public void setWorkbook(HSSFWorkbook newWorkbook) {
+  public void setWorkbook(Workbook newWorkbook) {
     mWorkbook = newWorkbook;
   }
   
 
-  public HSSFSheet[] getSheets() {
+  public Sheet[] getSheets() {
     return mSheets;
   }
   
 
-  public void setSheets(HSSFSheet[] newSheets) {
+  public void setSheets(Sheet[] newSheets) {
     mSheets = newSheets;
   }
   
 
+  public BiffWorkbook getBiffWorkbook() {
+    return mBiffWorkbook;
+  }
+  
+
+  public void setBiffWorkbook(BiffWorkbook newBiffWorkbook) {
+    mBiffWorkbook = newBiffWorkbook;
+  }
+  
+
   public int getRows() {
     return mRows;
   }
@@ -237,4 +498,108 @@ public class WeldingData {
   public void setDstFileName(String fileName) {
     mDstFileName = fileName;
   }
+  
+
+  public long getRetainedSize() {
+    long size = 256;
+    if(mData != null) {
+      size += 16 + mData.length;
+    }
+    size += 16 + 4L*mDataLines.length;
+    if(mDataIndex != null) {
+      size += 16 + 4L*mDataValues.length
+       + 128L*(mDataIndex.size() + mDataLines.length/2);
+      for(DataValue value: mDataValues) {
+        if(value != null) {
+          size += 64;
+        }
+      }
+    }
+    if(mMsg != null) {
+      size += 16 + mMsg.length;
+    }
+    size += 16 + 4L*mParamTable.length + 4L*mParams.size();
+    for(ParamColumn column: mParams) {
+      size += column.getRetainedSize();
+    }
+    for(ParamColumn[] row: mParamTable) {
+      if(row != null) {
+        size += 16 + 4L*row.length;
+      }
+    }
+    return size;
+  }
+  
+
+  public void write(DataOutput out) throws IOException {
+    out.writeBoolean(mLast);
+    writeString(out, mIpAddr);
+    out.writeInt(mVersion == null ? -1 : mVersion);
+    writeString(out, getData());
+    writeBytes(out, mMsg);
+    out.writeInt(mParams.size());
+    for(ParamColumn column: mParams) {
+      writeString(out, column.getName());
+      writeBytes(out, column.toBytes());
+    }
+    writeString(out, mPipeNumber);
+    writeString(out, mPipeThickness);
+    out.writeLong(mJournalId);
+  }
+  
+
+  public static WeldingData read(DataInput in) throws IOException {
+    final WeldingData wd = new WeldingData();
+    wd.setLast(in.readBoolean());
+    wd.setIpAddr(readString(in));
+    final int version = in.readInt();
+    wd.setVersion(version < 0 ? null : version);
+    wd.setData(readString(in));
+    wd.setMsg(readBytes(in));
+    for(int i = in.readInt(); i > 0; i--) {
+      final String field = readString(in);
+      wd.setParam(field, readBytes(in));
+    }
+    wd.setPipeNumber(readString(in));
+    wd.setPipeThickness(readString(in));
+    wd.setJournalId(in.readLong());
+    return wd;
+  }
+  
+
+  private static void writeString(DataOutput out, String value)
+     throws IOException {
+    writeBytes(out, value == null
+     ? null
+     : value.getBytes(StandardCharsets.UTF_8));
+  }
+  
+
+  private static String readString(DataInput in) throws IOException {
+    final byte[] bytes = readBytes(in);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+
+  private static void writeBytes(DataOutput out, byte[] value)
+     throws IOException {
+    if(value == null) {
+      out.writeInt(-1);
+    }
+    else {
+      out.writeInt(value.length);
+      out.write(value);
+    }
+  }
+  
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    final int length = in.readInt();
+    if(length < 0) {
+      return null;
+    }
+    final byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
 }
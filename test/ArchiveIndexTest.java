@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import jwna.ArchiveIndex;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ArchiveIndexTest {
+  private static final List<String> XLS = Collections.singletonList(".xls");
+  
+
+  @Test
+  public void testAllocate() throws IOException {
+    final Path dir = Files.createTempDirectory("archive");
+    final String base = "1000_OD-1____1600123_15_data";
+    Files.createFile(dir.resolve(base + ".xls"));
+    Files.createFile(dir.resolve(base + "_1.xls"));
+    Files.createFile(dir.resolve(base + "_3.jwc"));
+    Files.createFile(dir.resolve(base + "_4.xls.tmp"));
+    Files.createFile(dir.resolve("2016-03-04__05-06-07.xls"));
+
+    final ArchiveIndex index = ArchiveIndex.getInstance();
+    index.clear();
+    assertEquals(base + "_5", index.allocate(dir, base, XLS, true));
+    assertEquals(base + "_6", index.allocate(dir, base, XLS, true));
+    assertEquals("800_ID-1", index.allocate(dir, "800_ID-1", XLS, true));
+    assertEquals("800_ID-1_1", index.allocate(dir, "800_ID-1", XLS, true));
+    assertEquals("2016-03-04__05-06-08",
+     index.allocate(dir, "2016-03-04__05-06-08", XLS, false));
+    try {
+      index.allocate(dir, "2016-03-04__05-06-07", XLS, false);
+      fail();
+    }
+    catch(FileAlreadyExistsException ex) {
+    }
+
+    final Path month = dir.resolve("1000").resolve("OD1").resolve("2016")
+     .resolve("3");
+    assertEquals(base, index.allocate(month, base,
+     Arrays.asList(".xls", ".jwc"), true));
+    assertTrue(Files.isDirectory(month));
+    assertEquals(base + "_1", index.allocate(month, base,
+     Collections.singletonList(".jwc"), true));
+  }
+  
+
+  @Test
+  public void testConcurrent() throws Exception {
+    final Path dir = Files.createTempDirectory("archive");
+    final ArchiveIndex index = ArchiveIndex.getInstance();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final ArrayList<Future<String>> futures = new ArrayList<>();
+    for(int i = 0; i < 200; i++) {
+      futures.add(executor.submit(
+       () -> index.allocate(dir, "pipe", XLS, true)));
+    }
+    final HashSet<String> names = new HashSet<>();
+    for(Future<String> future: futures) {
+      assertTrue(names.add(future.get()));
+    }
+    executor.shutdown();
+    assertTrue(names.contains("pipe"));
+    assertTrue(names.contains("pipe_199"));
+  }
+}
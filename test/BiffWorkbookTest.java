@@ -0,0 +1,576 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import jwna.BiffTemplate;
+import jwna.BiffWorkbook;
+import jwna.Common;
+import jwna.DataSaver;
+import jwna.Jwna;
+import jwna.WeldingData;
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFFont;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.util.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BiffWorkbookTest {
+  private static final int SID_BOUNDSHEET = 0x0085;
+  private static final int SID_INDEX      = 0x020B;
+  private static final int SID_ROW        = 0x0208;
+  private static final int SID_DBCELL     = 0x00D7;
+  private static final int SID_NUMBER     = 0x0203;
+  private static final int SID_MULRK      = 0x00BD;
+  private static final int SID_MULBLANK   = 0x00BE;
+  private static final double[] RK_VALUES = {1.0, 2.5, 100, -7};
+  private static final int[] RK_CODES = {0x3FF00000, 250 << 2 | 3,
+    100 << 2 | 2, -7 << 2 | 2};
+  private static final Charset CHARSET = Charset.forName("windows-1251");
+  private static Path sRunPath;
+  private static Path sAppPath;
+  
+
+  @BeforeClass
+  public static void setUpClass() throws IOException, URISyntaxException {
+    File file = new File(
+     Jwna.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    while(file != null) {
+      final Path path = Paths.get(file.getAbsolutePath(), "run");
+      if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+        sRunPath = path;
+        break;
+      }
+      file = file.getParentFile();
+    }
+    if(sRunPath == null) {
+      throw new IOException("Root folder[run] was not found.");
+    }
+    sAppPath = Files.createTempDirectory("jwna-biff");
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(sRunPath)) {
+      for(Path path: stream) {
+        if(Files.isRegularFile(path)) {
+          Files.copy(path, sAppPath.resolve(path.getFileName()));
+        }
+      }
+    }
+    Files.createDirectory(sAppPath.resolve("archive"));
+    Common.initWithAppPath(sAppPath.toString());
+  }
+  
+
+  @AfterClass
+  public static void tearDownClass() {
+    Common.initWithAppPath(sRunPath.toString());
+    Common.load();
+  }
+  
+
+  @Test
+  public void testCycle() throws IOException {
+    final String[] ips = {Common.TEST_IP_ADDR_800_I, Common.TEST_IP_ADDR_800_O,
+      Common.TEST_IP_ADDR_1000_I, Common.TEST_IP_ADDR_1000_O};
+    for(String ip: ips) {
+      final byte[] poi = saveCycle(ip, Common.WRITER_POI);
+      final byte[] biff = saveCycle(ip, Common.WRITER_BIFF);
+      checkIndex(getWorkbookStream(biff));
+      compareWorkbooks(poi, biff);
+    }
+  }
+  
+
+  @Test
+  public void testLongText() throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    for(int i = 0; i < 300; i++) {
+      builder.append((char)('A' + i % 26));
+    }
+    final String text = builder.toString();
+    final byte[] poi = saveCycle(Common.TEST_IP_ADDR_1000_O, Common.WRITER_POI,
+     text);
+    final byte[] biff = saveCycle(Common.TEST_IP_ADDR_1000_O,
+     Common.WRITER_BIFF, text);
+    compareWorkbooks(poi, biff);
+    assertEquals(text, read(biff).getSheet("Setup").getRow(2).getCell(2)
+     .getStringCellValue());
+
+    final BiffWorkbook workbook = new BiffWorkbook(
+     BiffTemplate.parse(createTemplate()), new String[] {"Data"});
+    assertTrue(workbook.setText(0, 1, 1, text.substring(0, 255)));
+    assertFalse(workbook.setText(0, 1, 2, text));
+    assertTrue(workbook.isEmpty(0, 1, 2));
+  }
+  
+
+  @Test
+  public void testTemplateRecords() throws IOException {
+    final byte[] template = createTemplate();
+    final byte[] stream = getWorkbookStream(template);
+    assertEquals(1, countRecords(stream, SID_MULRK));
+    assertTrue(countRecords(stream, SID_MULBLANK) > 0);
+
+    final BiffWorkbook biff = new BiffWorkbook(BiffTemplate.parse(template),
+     new String[] {"Data"});
+    for(int i = 0; i < RK_VALUES.length; i++) {
+      assertFalse(biff.isEmpty(0, 0, 1 + i));
+      assertTrue(biff.isEmpty(0, 1, i));
+    }
+
+    final HSSFWorkbook poi = read(template);
+    edit(poi, biff, 150);
+    final byte[] result = write(biff);
+    checkIndex(getWorkbookStream(result));
+    compareWorkbooks(write(poi), result);
+
+    final HSSFSheet sheet = read(result).getSheet("Data");
+    final HSSFRow row = sheet.getRow(0);
+    assertEquals(RK_VALUES[0], row.getCell(1).getNumericCellValue(), 0);
+    assertEquals(3.25, row.getCell(2).getNumericCellValue(), 0);
+    for(int i = 2; i < RK_VALUES.length; i++) {
+      assertEquals(RK_VALUES[i], row.getCell(1 + i).getNumericCellValue(), 0);
+    }
+    assertEquals(2, row.getCell(2).getCellStyle().getDataFormat());
+    assertEquals(CellType.BLANK, sheet.getRow(1).getCell(3).getCellTypeEnum());
+    assertEquals(4, sheet.getRow(1).getCell(3).getCellStyle().getDataFormat());
+    assertEquals("\u0421\u0432\u0430\u0440\u043a\u0430 \u6eb6\u63a5",
+     sheet.getRow(2).getCell(1).getStringCellValue());
+    assertEquals("Latin \u00fc\u00df",
+     sheet.getRow(2).getCell(2).getStringCellValue());
+  }
+  
+
+  @Test
+  public void testDifat() throws IOException {
+    final byte[] template = createTemplate();
+    final BiffWorkbook biff = new BiffWorkbook(BiffTemplate.parse(template),
+     new String[] {"Data"});
+    final int rows = 16000;
+    final int cols = 32;
+    for(int r = 0; r < rows; r++) {
+      for(int c = 0; c < cols; c++) {
+        biff.setNumber(0, 10 + r, c, r + c/100.0);
+      }
+    }
+    final byte[] result = write(biff);
+    assertTrue(getInt(result, 0x2C) > 109);
+    assertTrue(getInt(result, 0x48) > 0);
+    checkIndex(getWorkbookStream(result));
+
+    final HSSFSheet sheet = read(result).getSheet("Data");
+    assertEquals(cols, sheet.getRow(10 + rows - 1).getPhysicalNumberOfCells());
+    assertNull(sheet.getRow(10 + rows));
+    assertEquals(299.5, sheet.getRow(20299).getCell(40).getNumericCellValue(),
+     0);
+    for(int r = 0; r < rows; r += 997) {
+      final HSSFRow row = sheet.getRow(10 + r);
+      assertEquals(cols, row.getPhysicalNumberOfCells());
+      for(int c = 0; c < cols; c++) {
+        assertEquals(r + c/100.0, row.getCell(c).getNumericCellValue(), 0);
+      }
+    }
+    assertEquals(RK_VALUES[3], sheet.getRow(0).getCell(4).getNumericCellValue(),
+     0);
+  }
+  
+
+  private static void edit(HSSFWorkbook poi, BiffWorkbook biff, int rows) {
+    final HSSFSheet sheet = poi.getSheet("Data");
+    setNumber(sheet, 0, 2, 3.25);
+    biff.setNumber(0, 0, 2, 3.25);
+    final String[] texts = {
+      "\u0421\u0432\u0430\u0440\u043a\u0430 \u6eb6\u63a5",
+      "Latin \u00fc\u00df", ""};
+    for(int i = 0; i < texts.length; i++) {
+      getCell(sheet, 2, 1 + i).setCellValue(texts[i]);
+      biff.setText(0, 2, 1 + i, texts[i]);
+    }
+    for(int r = 0; r < rows; r++) {
+      for(int c = r % 3; c < 6; c += 1 + r % 2) {
+        final double v = r*10 + c + 0.5;
+        setNumber(sheet, 3 + r, c, v);
+        biff.setNumber(0, 3 + r, c, v);
+      }
+    }
+    setNumber(sheet, 1, 5, 42);
+    biff.setNumber(0, 1, 5, 42);
+  }
+  
+
+  private static void setNumber(HSSFSheet sheet, int row, int col,
+     double value) {
+    getCell(sheet, row, col).setCellValue(value);
+  }
+  
+
+  private static Cell getCell(HSSFSheet sheet, int row, int col) {
+    HSSFRow rowObj = sheet.getRow(row);
+    if(rowObj == null) {
+      rowObj = sheet.createRow(row);
+    }
+    Cell cell = rowObj.getCell(col);
+    if(cell == null) {
+      cell = rowObj.createCell(col);
+    }
+    return cell;
+  }
+  
+
+  private static byte[] createTemplate() throws IOException {
+    final HSSFWorkbook workbook = new HSSFWorkbook();
+    final HSSFSheet sheet = workbook.createSheet("Data");
+    final CellStyle[] styles = new CellStyle[RK_VALUES.length];
+    for(int i = 0; i < styles.length; i++) {
+      styles[i] = workbook.createCellStyle();
+      styles[i].setDataFormat((short)(1 + i));
+    }
+    HSSFRow row = sheet.createRow(0);
+    row.createCell(0).setCellValue("Template");
+    for(int i = 0; i < RK_VALUES.length; i++) {
+      final Cell cell = row.createCell(1 + i);
+      cell.setCellValue(RK_VALUES[i]);
+      cell.setCellStyle(styles[i]);
+    }
+    row = sheet.createRow(1);
+    for(int i = 0; i < styles.length; i++) {
+      row.createCell(i).setCellStyle(styles[i]);
+    }
+    for(int i = 0; i < 300; i++) {
+      sheet.createRow(20000 + i).createCell(40).setCellValue(i + 0.5);
+    }
+
+    final byte[] stream = toMulRk(getWorkbookStream(write(workbook)));
+    final POIFSFileSystem fs = new POIFSFileSystem();
+    fs.createDocument(new ByteArrayInputStream(stream), "Workbook");
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    fs.writeFilesystem(out);
+    fs.close();
+    return out.toByteArray();
+  }
+  
+
+  private static byte[] toMulRk(byte[] stream) {
+    int first = -1;
+    int end = -1;
+    int pos = 0;
+    while(pos + 4 <= stream.length) {
+      final int sid = getShort(stream, pos);
+      final int len = 4 + getShort(stream, pos + 2);
+      if(sid == SID_NUMBER && getShort(stream, pos + 4) == 0) {
+        if(first < 0) {
+          first = pos;
+        }
+        end = pos + len;
+      }
+      pos += len;
+    }
+    final int count = RK_VALUES.length;
+    assertEquals(18*count, end - first);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(stream, 0, first);
+    putShort(out, SID_MULRK);
+    putShort(out, 6 + 6*count);
+    putShort(out, 0);
+    putShort(out, 1);
+    for(int i = 0; i < count; i++) {
+      putShort(out, getShort(stream, first + 18*i + 8));
+      putShort(out, RK_CODES[i]);
+      putShort(out, RK_CODES[i] >>> 16);
+    }
+    putShort(out, count);
+    out.write(stream, end, stream.length - end);
+    return out.toByteArray();
+  }
+  
+
+  private static byte[] saveCycle(String ip, String writer) throws IOException {
+    return saveCycle(ip, writer, "2600777");
+  }
+  
+
+  private static byte[] saveCycle(String ip, String writer, String pipeNumber)
+     throws IOException {
+    final ArrayList<String> config = new ArrayList<>();
+    for(String line: Files.readAllLines(sRunPath.resolve("jwna.config"),
+       StandardCharsets.UTF_8)) {
+      if(!line.startsWith("ArchivePath=") && !line.startsWith("XlsWriter=")
+         && !line.startsWith("OutputFormat=")
+         && !line.startsWith("CycleFile=")) {
+        config.add(line);
+      }
+    }
+    config.add("ArchivePath=" + sAppPath.resolve("archive"));
+    config.add("XlsWriter=" + writer);
+    config.add("OutputFormat=xls");
+    config.add("CycleFile=off");
+    Files.write(sAppPath.resolve("jwna.config"), config,
+     StandardCharsets.UTF_8);
+    Common.load();
+
+    final WeldingData wd = createWeldingData(ip, 700, pipeNumber);
+    new DataSaver().save(wd);
+    return Files.readAllBytes(Paths.get(wd.getDstFilePath(),
+     wd.getDstFileName()));
+  }
+  
+
+  private static WeldingData createWeldingData(String ip, int samples,
+     String pipeNumber) {
+    final WeldingData wd = new WeldingData();
+    wd.setLast(true);
+    wd.setIpAddr(ip);
+    wd.setVersion(0x1_40);
+    wd.setPipeNumber("2600777");
+    wd.setPipeThickness("15,7");
+    final StringBuilder builder = new StringBuilder();
+    builder.append("ManualControl=F\r\nPipeNumber=").append(pipeNumber)
+     .append("\r\n")
+     .append("PipeDiameter=1420\r\nPipeThickness=15,7\r\n")
+     .append("PersonnelNo=0042\r\nWeldingSpeedFv=1.25\r\n")
+     .append("StProvarActive=1\r\nProvarActive=0\r\nWelder=")
+     .append("\u0418\u0432\u0430\u043d\u043e\u0432 \u0418.\u0418.\r\n");
+    for(int i = 1; i <= 4; i++) {
+      builder.append("Ix").append(i).append('=').append(800 + 10*i)
+       .append("\r\nUx").append(i).append('=').append(30 + i)
+       .append("\r\nWelderState").append(i).append("=1\r\nWireDiameter")
+       .append(i).append("=4\r\n");
+    }
+    for(int i = 0; i < 40; i++) {
+      builder.append("Reg-").append(1 + i % 4).append('-').append(i)
+       .append('=').append(i % 3 == 0 ? "12,5" : Integer.toString(i))
+       .append("\r\n");
+    }
+    wd.setData(builder.toString().getBytes(CHARSET), CHARSET);
+    final int[] arcPrms = {1, 2, 3, 4, 10, 18, 21, 22, 30, 31, 32};
+    for(int prm: arcPrms) {
+      for(int con = 1; con <= 4; con++) {
+        wd.setParam(WeldingData.getParamKey(prm, con),
+         getParam(prm, con, samples), 0, 3*samples);
+      }
+    }
+    final int[] prms = {5, 6, 7, 11, 12, 13, 14, 15, 16, 17, 19, 20, 24, 25,
+      26, 27, 28, 33, 34, 35, 36, 37, 38, 41, 48, 49, 50};
+    for(int prm: prms) {
+      wd.setParam(WeldingData.getParamKey(prm, 0), getParam(prm, 0, samples),
+       0, 3*samples);
+    }
+    return wd;
+  }
+  
+
+  private static byte[] getParam(int prm, int con, int samples) {
+    final byte[] param = new byte[3*samples];
+    for(int i = 0; i < samples; i++) {
+      final int v = (i/50)*10 + prm*7 + con;
+      param[3*i] = (byte)v;
+      param[3*i + 1] = (byte)(v >> 8);
+      param[3*i + 2] = (byte)(i % 7);
+    }
+    return param;
+  }
+  
+
+  private static void compareWorkbooks(byte[] expectedFile, byte[] actualFile)
+     throws IOException {
+    final HSSFWorkbook expected = read(expectedFile);
+    final HSSFWorkbook actual = read(actualFile);
+
+    assertEquals(expected.getNumCellStyles(), actual.getNumCellStyles());
+    for(short i = 0; i < expected.getNumCellStyles(); i++) {
+      assertEquals("XF " + i, getStyle(expected, i), getStyle(actual, i));
+    }
+
+    assertEquals(expected.getNumberOfSheets(), actual.getNumberOfSheets());
+    for(int s = 0; s < expected.getNumberOfSheets(); s++) {
+      final HSSFSheet expectedSheet = expected.getSheetAt(s);
+      final HSSFSheet actualSheet = actual.getSheetAt(s);
+      final String name = expectedSheet.getSheetName();
+      assertEquals(name, actualSheet.getSheetName());
+      assertEquals(name, getRows(expectedSheet), getRows(actualSheet));
+      for(Row row: expectedSheet) {
+        final Row actualRow = actualSheet.getRow(row.getRowNum());
+        assertEquals(name + " row " + row.getRowNum(), row.getHeight(),
+         actualRow.getHeight());
+        assertEquals(name + " row " + row.getRowNum(),
+         row.getPhysicalNumberOfCells(), actualRow.getPhysicalNumberOfCells());
+        for(Cell cell: row) {
+          final Cell actualCell = actualRow.getCell(cell.getColumnIndex());
+          final String where = name + " " + cell.getAddress();
+          assertNotNull(where, actualCell);
+          assertEquals(where, cell.getCellTypeEnum(),
+           actualCell.getCellTypeEnum());
+          assertEquals(where, cell.getCellStyle().getIndex(),
+           actualCell.getCellStyle().getIndex());
+          switch(cell.getCellTypeEnum()) {
+            case NUMERIC:
+              assertEquals(where, cell.getNumericCellValue(),
+               actualCell.getNumericCellValue(), 0);
+              break;
+            case STRING:
+              assertEquals(where, cell.getStringCellValue(),
+               actualCell.getStringCellValue());
+              break;
+            case BOOLEAN:
+              assertEquals(where, cell.getBooleanCellValue(),
+               actualCell.getBooleanCellValue());
+              break;
+            case FORMULA:
+              assertEquals(where, cell.getCellFormula(),
+               actualCell.getCellFormula());
+              break;
+            default:
+              break;
+          }
+        }
+      }
+    }
+  }
+  
+
+  private static HashSet<Integer> getRows(HSSFSheet sheet) {
+    final HashSet<Integer> rows = new HashSet<>();
+    for(Row row: sheet) {
+      rows.add(row.getRowNum());
+    }
+    return rows;
+  }
+  
+
+  private static String getStyle(HSSFWorkbook workbook, short index) {
+    final HSSFCellStyle style = workbook.getCellStyleAt(index);
+    final HSSFFont font = style.getFont(workbook);
+    return style.getDataFormatString() + "|" + style.getAlignmentEnum()
+     + "|" + style.getVerticalAlignmentEnum() + "|" + style.getWrapText()
+     + "|" + style.getIndention() + "|" + style.getRotation()
+     + "|" + style.getBorderLeftEnum() + "|" + style.getBorderRightEnum()
+     + "|" + style.getBorderTopEnum() + "|" + style.getBorderBottomEnum()
+     + "|" + style.getFillPatternEnum() + "|" + style.getFillForegroundColor()
+     + "|" + style.getFillBackgroundColor() + "|" + style.getLocked()
+     + "|" + style.getHidden() + "|" + font.getFontName()
+     + "|" + font.getFontHeight() + "|" + font.getBold()
+     + "|" + font.getItalic() + "|" + font.getUnderline()
+     + "|" + font.getColor();
+  }
+  
+
+  private static void checkIndex(byte[] stream) {
+    final HashSet<Integer> starts = new HashSet<>();
+    final ArrayList<Integer> sheets = new ArrayList<>();
+    int pos = 0;
+    while(pos + 4 <= stream.length) {
+      starts.add(pos);
+      if(getShort(stream, pos) == SID_BOUNDSHEET) {
+        sheets.add(getInt(stream, pos + 4));
+      }
+      pos += 4 + getShort(stream, pos + 2);
+    }
+    assertEquals(stream.length, pos);
+
+    for(int sheet: sheets) {
+      assertTrue(starts.contains(sheet));
+      int index = sheet;
+      while(getShort(stream, index) != SID_INDEX
+         && getShort(stream, index) != 0x000A) {
+        index += 4 + getShort(stream, index + 2);
+      }
+      if(getShort(stream, index) != SID_INDEX) {
+        continue;
+      }
+      final int blocks = (getShort(stream, index + 2) - 16)/4;
+      for(int b = 0; b < blocks; b++) {
+        final int dbCell = getInt(stream, index + 20 + 4*b);
+        assertTrue(starts.contains(dbCell));
+        assertEquals(SID_DBCELL, getShort(stream, dbCell));
+        final int firstRow = dbCell - getInt(stream, dbCell + 4);
+        assertTrue(starts.contains(firstRow));
+        assertEquals(SID_ROW, getShort(stream, firstRow));
+        int cell = firstRow + 20;
+        final int count = (getShort(stream, dbCell + 2) - 4)/2;
+        for(int i = 0; i < count; i++) {
+          cell += getShort(stream, dbCell + 8 + 2*i);
+          assertTrue(starts.contains(cell));
+          assertNotEquals(SID_ROW, getShort(stream, cell));
+          assertNotEquals(SID_DBCELL, getShort(stream, cell));
+        }
+      }
+    }
+  }
+  
+
+  private static int countRecords(byte[] stream, int sid) {
+    int count = 0;
+    int pos = 0;
+    while(pos + 4 <= stream.length) {
+      if(getShort(stream, pos) == sid) {
+        count++;
+      }
+      pos += 4 + getShort(stream, pos + 2);
+    }
+    return count;
+  }
+  
+
+  private static byte[] getWorkbookStream(byte[] file) throws IOException {
+    try (NPOIFSFileSystem fs =
+          new NPOIFSFileSystem(new ByteArrayInputStream(file));
+         InputStream in = fs.createDocumentInputStream("Workbook")) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+  
+
+  private static HSSFWorkbook read(byte[] file) throws IOException {
+    return new HSSFWorkbook(new ByteArrayInputStream(file));
+  }
+  
+
+  private static byte[] write(HSSFWorkbook workbook) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    workbook.write(out);
+    return out.toByteArray();
+  }
+  
+
+  private static byte[] write(BiffWorkbook workbook) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    workbook.write(out);
+    return out.toByteArray();
+  }
+  
+
+  private static void putShort(ByteArrayOutputStream out, int value) {
+    out.write(value);
+    out.write(value >>> 8);
+  }
+  
+
+  private static int getShort(byte[] data, int pos) {
+    return (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8;
+  }
+  
+
+  private static int getInt(byte[] data, int pos) {
+    return getShort(data, pos) | getShort(data, pos + 2) << 16;
+  }
+}
@@ -0,0 +1,39 @@
+import jwna.ChangeEncoder;
+import jwna.ParamColumn;
+import jwna.ParamConverter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ChangeEncoderTest {
+  @Test
+  public void testEncode() {
+    final ParamColumn param = new ParamColumn(0, new byte[] {
+      10, 0, 0,
+      10, 0, 0,
+      20, 0, 0,
+      20, 0, 0,
+      44, 1, 0,
+      10, 0, 0});
+    final ChangeEncoder encoder =
+     new ChangeEncoder(ChangeEncoder.DEFAULT_TOLERANCE);
+    assertEquals(3, encoder.encode(param, 6, 1, ParamConverter.INT));
+    assertEquals(10.0, encoder.getInitial(), 0.0);
+    assertEquals(4.0, encoder.getOffset(0), 0.0);
+    assertEquals(20.0, encoder.getValue(0), 0.0);
+    assertEquals(8.0, encoder.getOffset(1), 0.0);
+    assertEquals(300.0, encoder.getValue(1), 0.0);
+    assertEquals(10.0, encoder.getOffset(2), 0.0);
+    assertEquals(10.0, encoder.getValue(2), 0.0);
+
+    assertEquals(2, encoder.encode(param, 3, 2, ParamConverter.INT));
+    assertEquals(4.0, encoder.getOffset(0), 0.0);
+    assertEquals(20.0, encoder.getValue(0), 0.0);
+    assertEquals(8.0, encoder.getOffset(1), 0.0);
+    assertEquals(300.0, encoder.getValue(1), 0.0);
+
+    assertEquals(0, new ChangeEncoder(500.0).encode(param, 6, 1,
+     ParamConverter.INT));
+    assertEquals(0, encoder.encode(null, 0, 1, ParamConverter.INT));
+    assertEquals(0.0, encoder.getInitial(), 0.0);
+  }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import jwna.CycleFile;
+import jwna.ParamConverter;
+import jwna.WeldingData;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CycleFileTest {
+  @Test
+  public void testRoundTrip() throws IOException {
+    final WeldingData wd = new WeldingData();
+    wd.setVersion(0x140);
+    wd.setStanSize(1000);
+    wd.setStanNumber(2);
+    wd.setStanType("OD");
+    wd.setPipeNumber("12345");
+    wd.setPipeThickness("17,5");
+    wd.setDate(LocalDateTime.of(2016, 3, 4, 5, 6, 7));
+    wd.setData("PipeNumber=12345\nWireIdMax=3\n");
+    wd.setParam("1_1", new byte[] {1, 0, 2, (byte)0xFF, (byte)0xFF, 3});
+    wd.setParam("17_0", new byte[] {(byte)0xF6, (byte)0xFF, 0});
+    wd.setParam("2_1", new byte[0]);
+
+    final Path path = Files.createTempFile("cycle", CycleFile.EXTENSION);
+    path.toFile().deleteOnExit();
+    Files.delete(path);
+    CycleFile.write(wd, path);
+    final CycleFile file = CycleFile.open(path);
+    assertEquals(0x140, file.getVersion());
+    assertEquals(1000, file.getStanSize());
+    assertEquals(2, file.getStanNumber());
+    assertEquals("OD", file.getStanType());
+    assertEquals("12345", file.getPipeNumber());
+    assertEquals("17,5", file.getPipeThickness());
+    assertEquals(wd.getDate(), file.getDate());
+    assertEquals(wd.getData(), file.getData());
+    assertEquals(Arrays.asList("1_1", "2_1", "17_0"), file.getColumnNames());
+
+    assertEquals(2, file.getSampleCount("1_1"));
+    assertEquals(0, file.getSampleCount("2_1"));
+    assertEquals(-1, file.getSampleCount("3_1"));
+    assertEquals(1, file.getArg0("1_1", 0));
+    assertEquals(2, file.getArg1("1_1", 0));
+    assertEquals(0xFFFF, file.getArg0("1_1", 1));
+    assertEquals(3, file.getArg1("1_1", 1));
+    assertArrayEquals(new double[] {-1.0},
+     file.readColumn("17_0", ParamConverter.HEAD_POS), 0.0);
+    assertArrayEquals(new double[] {0.258, 16776.963},
+     file.readColumn("1_1", ParamConverter.TICKS), 1e-9);
+    assertEquals(0, file.readColumn("2_1", ParamConverter.INT).length);
+    assertNull(file.readColumn("3_1", ParamConverter.INT));
+  }
+  
+
+  @Test(expected = IOException.class)
+  public void testNotCycleFile() throws IOException {
+    final Path path = Files.createTempFile("cycle", CycleFile.EXTENSION);
+    path.toFile().deleteOnExit();
+    Files.write(path, new byte[64]);
+    CycleFile.open(path);
+  }
+}
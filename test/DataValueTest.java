@@ -0,0 +1,63 @@
+import java.nio.charset.Charset;
+import jwna.DataValue;
+import jwna.WeldingData;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DataValueTest {
+  @Test
+  public void testParse() {
+    for(String text: new String[] {"0", "-12", "+7", "2147483647",
+       "-2147483648"}) {
+      final DataValue value = DataValue.parse(text);
+      assertEquals(text, DataValue.TYPE_INT, value.getType());
+      assertEquals(text, Integer.parseInt(text), value.getNumber(), 0.0);
+    }
+    for(String text: new String[] {"1.5", "1,5", ".5", "5.", "2147483648",
+       "1e3", "-2.5E-2", " 3 ", "4d", "NaN", "-Infinity"}) {
+      final DataValue value = DataValue.parse(text);
+      assertEquals(text, DataValue.TYPE_DOUBLE, value.getType());
+      assertEquals(text, Double.parseDouble(text.replace(',', '.')),
+       value.getNumber(), 0.0);
+    }
+    for(String text: new String[] {"", "-", ".", "1,000.5", "1e", "Auto",
+       "12 B", "0x10"}) {
+      assertEquals(text, DataValue.TYPE_TEXT, DataValue.parse(text).getType());
+    }
+  }
+  
+
+  @Test
+  public void testIndex() {
+    final WeldingData wd = new WeldingData();
+    wd.setData("PipeNumber=777\r\nReg-1-A=1,5\r\nReg-1-B\r\nReg-2-A=x\r\n"
+     + "PipeNumber=888\r\nReg-1-C=3");
+    assertEquals(777, wd.getDataValue("PipeNumber").getNumber(), 0.0);
+    assertNull(wd.getDataValue("PipeDiameter"));
+    assertEquals(3, wd.getDataGroup("Reg-1-").size());
+    assertEquals(1.5, wd.getDataGroup("Reg-1-").get(0).getNumber(), 0.0);
+    assertEquals("", wd.getDataGroup("Reg-1-").get(1).getText());
+    assertEquals("x", wd.getDataGroup("Reg-2-").get(0).getText());
+    assertTrue(wd.getDataGroup("Reg-3-").isEmpty());
+  }
+  
+
+  @Test
+  public void testRawData() {
+    final Charset charset = Charset.forName("windows-1251");
+    final String text = "Welder=\u0418\u0432\u0430\u043d\r\n\r\n\r\n"
+     + "Reg-1-A=2\r\n\r\n";
+    final WeldingData wd = new WeldingData();
+    wd.setData(text.getBytes(charset), charset);
+    assertEquals(text, wd.getData());
+    assertArrayEquals(new String[] {"Welder=\u0418\u0432\u0430\u043d", "",
+     "", "Reg-1-A=2"}, wd.getDataLines());
+    assertEquals("\u0418\u0432\u0430\u043d",
+     wd.getDataValue("Welder").getText());
+    assertEquals(2, wd.getDataGroup("Reg-1-").get(0).getNumber(), 0.0);
+    wd.setData(null);
+    assertNull(wd.getData());
+    assertEquals(0, wd.getDataLines().length);
+    assertNull(wd.getDataValue("Welder"));
+  }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.util.Arrays;
+import jwna.ChangeEncoder;
+import jwna.ExportPlan;
+import jwna.ParamConverter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExportPlanTest {
+  @Test
+  public void testParse() throws IOException {
+    final ExportPlan plan = ExportPlan.parse(Arrays.asList(
+     "# comment",
+     "1 meter",
+     "",
+     "2 fields 2 int   # currents",
+     "9 field 28_0 ticks",
+     "10 idmax wireid",
+     "11 geom int",
+     "12 horzhead"), 3);
+
+    assertEquals(8, plan.size());
+    assertEquals(ExportPlan.KIND_METER, plan.getKind(0));
+    for(int i = 1; i <= 3; i++) {
+      assertEquals(ExportPlan.KIND_FIELD, plan.getKind(i));
+      assertEquals(i + 1, plan.getCol(i));
+      assertEquals("2_" + i, plan.getField(i));
+      assertSame(ParamConverter.INT, plan.getConverter(i));
+    }
+    assertEquals("28_0", plan.getField(4));
+    assertEquals(1.0, plan.getConverter(4).convert(3, 232), 0.0);
+    assertEquals(ExportPlan.KIND_ID_MAX, plan.getKind(5));
+    assertEquals(ExportPlan.KIND_RESULT_GEOM, plan.getKind(6));
+    assertEquals(ExportPlan.KIND_HORZ_HEAD, plan.getKind(7));
+    assertEquals(12, plan.getCol(7));
+  }
+  
+
+  @Test
+  public void testParseChanges() throws IOException {
+    final ExportPlan plan = ExportPlan.parse(Arrays.asList(
+     "2 changes 31 int",
+     "20 change 48_0 int 0.5"), 2);
+
+    assertEquals(3, plan.size());
+    for(int i = 0; i < 2; i++) {
+      assertEquals(ExportPlan.KIND_CHANGE, plan.getKind(i));
+      assertEquals(2 + 2*i, plan.getCol(i));
+      assertEquals("31_" + (i + 1), plan.getField(i));
+      assertEquals(ChangeEncoder.DEFAULT_TOLERANCE, plan.getTolerance(i), 0.0);
+    }
+    assertEquals("48_0", plan.getField(2));
+    assertEquals(0.5, plan.getTolerance(2), 0.0);
+  }
+  
+
+  @Test
+  public void testParseErrors() {
+    for(String line: new String[] {"x meter", "1 field 5_0", "1 field 5_0 foo",
+       "1 field 5-0 int", "1 table", "1 change 5_0 int -1",
+       "1 changes 5 int 0.1 2"}) {
+      try {
+        ExportPlan.parse(Arrays.asList("1 meter", line), 4);
+        fail(line);
+      }
+      catch(IOException ex) {
+        assertTrue(ex.getMessage(), ex.getMessage().startsWith("Export plan line 2"));
+      }
+    }
+  }
+  
+
+  @Test
+  public void testHeadPosConverter() {
+    assertEquals(-0.1, ParamConverter.HEAD_POS.convert(0xFFFF, 0), 1e-9);
+    assertEquals(12.3, ParamConverter.HEAD_POS.convert(123, 0), 1e-9);
+  }
+}
@@ -0,0 +1,134 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import jwna.FrameDecoder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+  @Test
+  public void testRead() throws IOException {
+    final byte[] stream = generateStream(3);
+    final FrameDecoder decoder = new FrameDecoder();
+    final LoopInputStream inputStream = new LoopInputStream(stream);
+
+    for(int i = 0; i < 3; i++) {
+      decoder.read(inputStream);
+      checkFrame(decoder, i);
+    }
+  }
+  
+
+  @Test
+  public void testFeed() throws IOException {
+    final byte[] stream = generateStream(3);
+    final FrameDecoder decoder = new FrameDecoder();
+
+    int frame = 0;
+    for(int i = 0; i < stream.length; i += 7) {
+      final ByteBuffer src =
+       ByteBuffer.wrap(stream, i, Math.min(7, stream.length - i));
+      while(src.hasRemaining()) {
+        if(decoder.feed(src)) {
+          checkFrame(decoder, frame++);
+        }
+      }
+    }
+    assertEquals(3, frame);
+  }
+  
+
+  @Test
+  public void testSteadyStateBuffer() throws IOException {
+    final byte[] stream = generateStream(16);
+    final FrameDecoder decoder = new FrameDecoder();
+    final LoopInputStream inputStream = new LoopInputStream(stream);
+    final ByteBuffer src = ByteBuffer.wrap(stream);
+
+    decode(decoder, inputStream, src, 16);
+    final byte[] buff = decoder.getBuffer();
+    final int capacity = buff.length;
+
+    for(int i = 0; i < 1000; i++) {
+      assertTrue(decode(decoder, inputStream, src, 1) > 0);
+      assertSame(buff, decoder.getBuffer());
+      assertEquals(capacity, decoder.getBuffer().length);
+    }
+  }
+  
+
+  private static long decode(FrameDecoder decoder, InputStream inputStream,
+     ByteBuffer src, int frames) throws IOException {
+    long sum = 0;
+    for(int i = 0; i < frames; i++) {
+      decoder.read(inputStream);
+      sum += decoder.getLength();
+      if(!src.hasRemaining()) {
+        src.rewind();
+      }
+      while(!decoder.feed(src)) {
+        src.rewind();
+      }
+      sum += decoder.getLength();
+    }
+    return sum;
+  }
+  
+
+  private static void checkFrame(FrameDecoder decoder, int frame) {
+    final byte[] buff = decoder.getBuffer();
+    final int length = decoder.getLength();
+    assertEquals(frameLength(frame), length);
+    assertEquals(length - 2, (buff[0] & 0xFF) + (buff[1] & 0xFF)*0x100);
+    for(int i = 2; i < length; i++) {
+      assertEquals((byte)(frame + i), buff[i]);
+    }
+  }
+  
+
+  private static int frameLength(int frame) {
+    return 2 + 10 + 300*frame;
+  }
+  
+
+  private static byte[] generateStream(int frames) {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for(int frame = 0; frame < frames; frame++) {
+      final int length = frameLength(frame);
+      stream.write((length - 2) & 0xFF);
+      stream.write(((length - 2) >> 8) & 0xFF);
+      for(int i = 2; i < length; i++) {
+        stream.write(frame + i);
+      }
+    }
+    return stream.toByteArray();
+  }
+  
+
+  private static class LoopInputStream extends InputStream {
+    private final byte[] mData;
+    private int mPos;
+
+    LoopInputStream(byte[] data) {
+      mData = data;
+    }
+    
+
+    @Override
+    public int read() {
+      final int b = mData[mPos] & 0xFF;
+      mPos = (mPos + 1) % mData.length;
+      return b;
+    }
+    
+
+    @Override
+    public int read(byte[] buff, int offset, int length) {
+      final int n = Math.min(length, mData.length - mPos);
+      System.arraycopy(mData, mPos, buff, offset, n);
+      mPos = (mPos + n) % mData.length;
+      return n;
+    }
+  }
+}
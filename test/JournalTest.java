@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import jwna.Journal;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JournalTest {
+  @Test
+  public void testReplay() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("journal");
+    final byte[] packet = new byte[] {1, 2, 3, 4, 5};
+
+    final Journal journal = new Journal(dir, 0x10000);
+    assertTrue(journal.open().isEmpty());
+    final Thread flusher = new Thread(journal);
+    flusher.start();
+    final long saved = journal.begin("10.0.0.1");
+    journal.append(saved, packet, packet.length);
+    journal.commit(saved);
+    final long committed = journal.begin("10.0.0.2");
+    journal.append(committed, packet, 3);
+    journal.append(committed, packet, packet.length);
+    journal.commit(committed);
+    final long open = journal.begin("10.0.0.3");
+    journal.append(open, packet, packet.length);
+    journal.saved(saved);
+    flusher.interrupt();
+    flusher.join();
+
+    final List<Journal.Cycle> cycles = new Journal(dir, 0x10000).open();
+    assertEquals(1, cycles.size());
+    final Journal.Cycle cycle = cycles.get(0);
+    assertEquals(committed, cycle.getId());
+    assertEquals("10.0.0.2", cycle.getIp());
+    assertEquals(2, cycle.getPackets().size());
+    assertArrayEquals(new byte[] {1, 2, 3}, cycle.getPackets().get(0));
+    assertArrayEquals(packet, cycle.getPackets().get(1));
+  }
+  
+
+  @Test
+  public void testSegmentBoundary() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("journal");
+    final byte[] packet = new byte[0x3000];
+    for(int i = 0; i < packet.length; i++) {
+      packet[i] = (byte)i;
+    }
+
+    final Journal journal = new Journal(dir, 0x10000);
+    journal.open();
+    final Thread flusher = new Thread(journal);
+    flusher.start();
+    final long id = journal.begin("10.0.0.1");
+    for(int i = 0; i < 12; i++) {
+      journal.append(id, packet, packet.length);
+    }
+    journal.commit(id);
+    flusher.interrupt();
+    flusher.join();
+
+    try (Stream<Path> files = Files.list(dir)) {
+      assertTrue(files.count() >= 3);
+    }
+    final List<Journal.Cycle> cycles = new Journal(dir, 0x10000).open();
+    assertEquals(1, cycles.size());
+    assertEquals(id, cycles.get(0).getId());
+    assertEquals("10.0.0.1", cycles.get(0).getIp());
+    assertEquals(12, cycles.get(0).getPackets().size());
+    for(byte[] data: cycles.get(0).getPackets()) {
+      assertArrayEquals(packet, data);
+    }
+  }
+  
+
+  @Test
+  public void testRecycle() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("journal");
+    final byte[] packet = new byte[0x4000];
+
+    final Journal journal = new Journal(dir, 0x10000);
+    journal.open();
+    final Thread flusher = new Thread(journal);
+    flusher.start();
+    for(int i = 0; i < 100; i++) {
+      final long id = journal.begin("10.0.0.1");
+      journal.append(id, packet, packet.length);
+      journal.commit(id);
+      journal.saved(id);
+    }
+    flusher.interrupt();
+    flusher.join();
+
+    try (Stream<Path> files = Files.list(dir)) {
+      assertTrue(files.count() <= 3);
+    }
+    assertTrue(new Journal(dir, 0x10000).open().isEmpty());
+  }
+  
+
+  @Test
+  public void testGroupCommit() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("journal");
+    final byte[] packet = new byte[0x3000];
+
+    final Journal journal = new Journal(dir, 0x10000);
+    journal.open();
+    final ArrayList<Boolean> forced = new ArrayList<>();
+    for(int i = 0; i < 8; i++) {
+      final long id = journal.begin("10.0.0.1");
+      journal.append(id, packet, packet.length);
+      journal.commit(id, result -> {
+        synchronized(forced) {
+          forced.add(result);
+        }
+      });
+    }
+    assertTrue(forced.isEmpty());
+
+    final Thread flusher = new Thread(journal);
+    flusher.start();
+    final long id = journal.begin("10.0.0.2");
+    journal.commit(id);
+    flusher.interrupt();
+    flusher.join();
+    synchronized(forced) {
+      assertEquals(8, forced.size());
+      assertFalse(forced.contains(false));
+    }
+    assertEquals(9, new Journal(dir, 0x10000).open().size());
+  }
+}
@@ -0,0 +1,27 @@
+import jwna.Metrics;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+  @Test
+  public void testPacketsAndSaves() {
+    final Metrics metrics = Metrics.getInstance();
+    final long begins = metrics.getPacketCounts().get("BEGIN_REQUEST");
+    final int buckets = metrics.getLatencyBucketsMicros().length;
+
+    metrics.packetReceived(1, 100, "test/A1", 3000);
+    metrics.packetReceived(1, 50, "test/A1", 3000);
+    metrics.packetReceived(99, 10, "test/A1", 0);
+    metrics.cycleSaved("test/A1", 5000000, false);
+    metrics.cycleSaved("test/A1", 5000000, true);
+
+    assertEquals(begins + 2, (long)metrics.getPacketCounts().get("BEGIN_REQUEST"));
+    assertEquals(160, (long)metrics.getBytesReceived().get("test/A1"));
+    assertEquals(2, (long)metrics.getSaveCounts().get("test/A1"));
+    assertEquals(1, (long)metrics.getSaveFailures().get("test/A1"));
+    final long[] latencies = metrics.getSaveLatencies().get("test/A1");
+    assertEquals(buckets, latencies.length);
+    assertEquals(2, latencies[13]);
+    assertTrue(metrics.dump().contains("save test/A1 failures=1 count=2"));
+  }
+}
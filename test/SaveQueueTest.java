@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import jwna.SaveQueue;
+import jwna.WeldingData;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SaveQueueTest {
+  @Test
+  public void testSpill() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0x20000);
+
+    for(int i = 0; i < 10; i++) {
+      queue.put(createWeldingData(i));
+    }
+    assertEquals(0, countFiles(dir));
+    assertTrue(queue.spill());
+    assertEquals(10, queue.size());
+    assertTrue(queue.getSpilled() > 0);
+    assertTrue(queue.getMemory() <= 0x20000);
+    assertEquals(queue.getSpilled(), countFiles(dir));
+
+    for(int i = 0; i < 10; i++) {
+      checkWeldingData(queue.take(), i);
+    }
+    assertEquals(0, queue.getSpilled());
+    assertEquals(0, queue.getMemory());
+    assertEquals(0, countFiles(dir));
+  }
+  
+
+  @Test
+  public void testRecover() throws IOException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0);
+    for(int i = 0; i < 3; i++) {
+      queue.put(createWeldingData(i));
+    }
+    queue.spill();
+
+    final List<WeldingData> recovered = SaveQueue.recover(dir, true);
+    assertEquals(3, recovered.size());
+    for(int i = 0; i < 3; i++) {
+      checkWeldingData(recovered.get(i), i);
+    }
+    assertEquals(0, countFiles(dir));
+  }
+  
+
+  @Test
+  public void testSpillThread() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0x20000);
+    final Thread spiller = new Thread(queue);
+    spiller.start();
+
+    for(int i = 0; i < 10; i++) {
+      queue.put(createWeldingData(i));
+    }
+    for(int i = 0; i < 100 && queue.getMemory() > 0x20000; i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(queue.getMemory() <= 0x20000);
+    for(int i = 0; i < 10; i++) {
+      checkWeldingData(queue.take(), i);
+    }
+    spiller.interrupt();
+    spiller.join();
+    assertEquals(0, queue.getSpilled());
+    assertEquals(0, countFiles(dir));
+  }
+  
+
+  @Test
+  public void testLoadFailure() throws IOException, InterruptedException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0);
+    for(int i = 0; i < 3; i++) {
+      queue.put(createWeldingData(i));
+    }
+    assertTrue(queue.spill());
+    final Path first;
+    try (Stream<Path> files = Files.list(dir)) {
+      first = files.sorted().findFirst().get();
+    }
+    Files.write(first, new byte[] {1, 2, 3});
+
+    checkWeldingData(queue.take(), 1);
+    checkWeldingData(queue.take(), 2);
+    assertEquals(0, queue.size());
+    assertTrue(Files.exists(first));
+  }
+  
+
+  @Test
+  public void testOffer() throws IOException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0x20000);
+    int accepted = 0;
+    while(queue.offer(createWeldingData(accepted))) {
+      accepted++;
+    }
+    assertTrue(queue.getMemory() > 2*0x20000);
+    assertTrue(queue.spill());
+    assertTrue(queue.offer(createWeldingData(accepted)));
+
+    final Path file = Files.createTempFile("spill", ".tmp");
+    final SaveQueue blocked = new SaveQueue(file, "test", 0x20000);
+    while(blocked.getMemory() <= 0x20000) {
+      assertTrue(blocked.offer(createWeldingData(0)));
+    }
+    assertFalse(blocked.spill());
+    assertFalse(blocked.offer(createWeldingData(1)));
+  }
+  
+
+  @Test
+  public void testKeep() throws IOException {
+    final Path dir = Files.createTempDirectory("spill");
+    final SaveQueue queue = new SaveQueue(dir, "test", 0x20000);
+    assertTrue(queue.keep(createWeldingData(1)));
+    assertTrue(queue.keep(createWeldingData(2)));
+    assertEquals(0, queue.size());
+    assertEquals(0, queue.getMemory());
+    assertEquals(2, countFiles(dir));
+
+    final List<WeldingData> recovered = SaveQueue.recover(dir, true);
+    assertEquals(2, recovered.size());
+    checkWeldingData(recovered.get(0), 1);
+    checkWeldingData(recovered.get(1), 2);
+
+    final Path file = Files.createTempFile("spill", ".tmp");
+    assertFalse(new SaveQueue(file, "test", 0x20000).keep(
+     createWeldingData(0)));
+  }
+  
+
+  private static WeldingData createWeldingData(int index) {
+    final WeldingData wd = new WeldingData();
+    wd.setLast(true);
+    wd.setIpAddr("10.0.0." + index);
+    wd.setVersion(0x1_10);
+    wd.setData("Data-" + index + "\r\nLine 2");
+    wd.setMsg(new byte[] {(byte)index});
+    wd.setParam("1_2", new byte[0x8000]);
+    wd.appendParam("1_2", new byte[] {(byte)index});
+    wd.setPipeNumber("N" + index);
+    wd.setJournalId(index);
+    return wd;
+  }
+  
+
+  private static void checkWeldingData(WeldingData wd, int index) {
+    assertTrue(wd.isLast());
+    assertEquals("10.0.0." + index, wd.getIpAddr());
+    assertEquals(Integer.valueOf(0x1_10), wd.getVersion());
+    assertArrayEquals(new String[] {"Data-" + index, "Line 2"},
+     wd.getDataLines());
+    assertArrayEquals(new byte[] {(byte)index}, wd.getMsg());
+    assertEquals(0x8001, wd.getParam("1_2").length);
+    assertEquals((byte)index, wd.getParam("1_2")[0x8000]);
+    assertEquals("N" + index, wd.getPipeNumber());
+    assertNull(wd.getPipeThickness());
+    assertEquals(index, wd.getJournalId());
+  }
+  
+
+  private static long countFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+}
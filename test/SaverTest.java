@@ -1,6 +1,9 @@
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -8,15 +11,24 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
+import jwna.ArchiveIndex;
 import jwna.Common;
 import jwna.DataSaver;
 import jwna.Jwna;
+import jwna.ParamColumn;
 import jwna.WeldingData;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 public class SaverTest {
+  private static Path sRootPath;
+  
+
   @BeforeClass
   public static void setUpClass() throws IOException, URISyntaxException {
     File file = new File(
@@ -33,6 +45,7 @@ public class SaverTest {
     if(rootPath == null) {
       throw new IOException("Root folder[run] was not found.");
     }
+    sRootPath = rootPath;
     Common.initWithAppPath(rootPath.toString()); 
     Common.load();
   }
@@ -84,6 +97,68 @@ public class SaverTest {
   }
   
   
+  @Test
+  public void testWeldingDataAppendParam() {
+    final WeldingData wd = new WeldingData();
+    final String field = "2_1";
+
+    wd.appendParam(field, new byte[] {1, 2, 3});
+    assertArrayEquals(new byte[] {1, 2, 3}, wd.getParam(field));
+
+    wd.appendParam(field, new byte[] {4, 5});
+    wd.appendParam(field, new byte[] {6});
+    assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, wd.getParam(field));
+    final ParamColumn column = wd.getParamColumn(field);
+    assertEquals(2, column.size());
+    assertEquals(0x0201, column.getArg0(0));
+    assertEquals(3, column.getArg1(0));
+    assertEquals(0x0504, column.getArg0(1));
+    assertEquals(6, column.getArg1(1));
+
+    wd.appendParam(field, new byte[] {(byte)0xFE, (byte)0xFF});
+    assertEquals(2, column.size());
+    assertEquals(8, column.getByteLength());
+    wd.appendParam(field, new byte[] {(byte)0x80});
+    assertEquals(3, column.size());
+    assertEquals(0xFFFE, column.getArg0(2));
+    assertEquals(-2, column.getSignedArg0(2));
+    assertEquals(0x80, column.getArg1(2));
+
+    wd.setParam(field, new byte[] {7, 8, 9});
+    assertArrayEquals(new byte[] {7, 8, 9}, wd.getParam(field));
+  }
+  
+  
+  @Test
+  public void testWeldingDataParamKeys() {
+    final WeldingData wd = new WeldingData();
+    wd.setParam("17_0", new byte[] {1, 0, 0});
+    wd.appendParam(WeldingData.getParamKey(-3, 1), new byte[] {2, 0, 0}, 0, 3);
+    wd.setParam("2_1", new byte[] {3, 0, 0});
+    wd.setParam("17_0", new byte[] {4, 0, 0});
+
+    final ArrayList<String> names = new ArrayList<>();
+    for(ParamColumn column: wd.getParams()) {
+      names.add(column.getName());
+    }
+    assertEquals(Arrays.asList("2_1", "17_0", "-3_1"), names);
+    assertSame(wd.getParamColumn("17_0"),
+     wd.getParamColumn(WeldingData.getParamKey(17, 0)));
+    assertEquals(4, wd.getParamColumn("17_0").getArg0(0));
+    assertEquals(2, wd.getParamColumn("-3_1").getArg0(0));
+    assertNull(wd.getParamColumn("3_1"));
+    assertNull(wd.getParam("1-2"));
+    assertEquals(-1, WeldingData.getParamKey("x_1"));
+    assertEquals(-1, WeldingData.getParamKey("300_1"));
+    try {
+      wd.setParam("1-2", new byte[0]);
+      fail();
+    }
+    catch(IllegalArgumentException ex) {
+    }
+  }
+  
+  
   @Test
   public void testStans() {    
     Common.Stan stan;
@@ -147,6 +222,148 @@ public class SaverTest {
     saver.save(wd);
   }  
   
+  @Test
+  public void testPublishKeepsExisting() throws IOException {
+    final Path dir = Files.createTempDirectory("jwna-publish");
+    final Path existing = dir.resolve("a.xls");
+    final Path temp = dir.resolve("a.xls.tmp");
+    Files.write(existing, "old".getBytes(StandardCharsets.US_ASCII));
+    Files.write(temp, "new".getBytes(StandardCharsets.US_ASCII));
+
+    DataSaver.publish(Arrays.asList(temp), false);
+    assertFalse(Files.exists(temp));
+    assertEquals("old", new String(Files.readAllBytes(existing),
+     StandardCharsets.US_ASCII));
+    assertEquals("new", new String(Files.readAllBytes(dir.resolve("a_1.xls")),
+     StandardCharsets.US_ASCII));
+  }
+  
+
+  @Test
+  public void testPublishFailure() throws IOException {
+    final Path dir = Files.createTempDirectory("jwna-publish");
+    final List<String> exts = Arrays.asList(".xls", ".jwc");
+    final ArchiveIndex index = ArchiveIndex.getInstance();
+    assertEquals("a", index.allocate(dir, "a", exts, false));
+    final Path xls = dir.resolve("a.xls.tmp");
+    final Path jwc = dir.resolve("a.jwc.tmp");
+    Files.write(xls, "xls".getBytes(StandardCharsets.US_ASCII));
+
+    try {
+      DataSaver.publish(Arrays.asList(xls, jwc), false);
+      fail("Missing file was published");
+    }
+    catch(IOException ex) {
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(0, files.count());
+    }
+    assertEquals("a", index.allocate(dir, "a", exts, false));
+  }
+  
+
+  @Test
+  public void testSaveXlsx() throws IOException {
+    final Path appPath = Files.createTempDirectory("jwna-xlsx");
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(sRootPath)) {
+      for(Path path: stream) {
+        if(Files.isRegularFile(path)) {
+          Files.copy(path, appPath.resolve(path.getFileName()));
+        }
+      }
+    }
+    Files.createDirectory(appPath.resolve("archive"));
+    final ArrayList<String> config = new ArrayList<>();
+    for(String line: Files.readAllLines(appPath.resolve("jwna.config"),
+       StandardCharsets.UTF_8)) {
+      if(!line.startsWith("ArchivePath=") && !line.startsWith("OutputFormat=")
+         && !line.startsWith("XlsxWindowRows=")
+         && !line.startsWith("CycleFile=")) {
+        config.add(line);
+      }
+    }
+    config.add("ArchivePath=" + appPath.resolve("archive"));
+    config.add("OutputFormat=xlsx");
+    config.add("XlsxWindowRows=100");
+    config.add("CycleFile=off");
+    Files.write(appPath.resolve("jwna.config"), config,
+     StandardCharsets.UTF_8);
+
+    Common.initWithAppPath(appPath.toString());
+    Common.load();
+    try {
+      try (DirectoryStream<Path> stream =
+            Files.newDirectoryStream(appPath, "template-*.xlsx")) {
+        int templates = 0;
+        for(Path path: stream) {
+          try (InputStream in = Files.newInputStream(path);
+               XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            assertEquals(path.toString(), 0,
+             workbook.getSheet("Data").getLastRowNum());
+          }
+          templates++;
+        }
+        assertEquals(4, templates);
+      }
+
+      final String[] ips = {Common.TEST_IP_ADDR_800_I,
+        Common.TEST_IP_ADDR_800_O, Common.TEST_IP_ADDR_1000_I,
+        Common.TEST_IP_ADDR_1000_O};
+      final DataSaver saver = new DataSaver();
+      final int samples = 2500;
+      for(String ip: ips) {
+        final WeldingData wd = generateParams(samples);
+        wd.setIpAddr(ip);
+        saver.save(wd);
+        assertTrue(wd.getDstFileName().endsWith(".xlsx"));
+        assertEquals(samples, wd.getRows());
+
+        final Path file = Paths.get(wd.getDstFilePath(), wd.getDstFileName());
+        try (InputStream in = Files.newInputStream(file);
+             XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+          final Sheet sheet = workbook.getSheet("Data");
+          assertEquals(samples, sheet.getLastRowNum());
+          final Row first = sheet.getRow(1);
+          assertTrue(first.getLastCellNum() > 0);
+          for(int i = 1; i <= samples; i += 499) {
+            final Row row = sheet.getRow(i);
+            assertNotNull(row);
+            assertEquals(first.getLastCellNum(), row.getLastCellNum());
+          }
+          assertNotNull(workbook.getSheet("Setup"));
+        }
+      }
+    }
+    finally {
+      Common.initWithAppPath(sRootPath.toString());
+      Common.load();
+    }
+  }
+  
+
+  private WeldingData generateParams(int samples) {
+    final WeldingData wd = new WeldingData();
+    wd.setLast(true);
+    wd.setVersion(0x1_40);
+    wd.setPipeNumber("12345");
+    wd.setPipeThickness("15");
+    wd.setData("PipeNumber=12345\r\nPipeDiameter=1420\r\n");
+    final byte[] param = new byte[3*samples];
+    for(int prm = 1; prm <= 50; prm++) {
+      for(int con = 0; con <= 4; con++) {
+        for(int i = 0; i < samples; i++) {
+          final int v = i/10 + prm + con;
+          param[3*i] = (byte)v;
+          param[3*i + 1] = (byte)(v >> 8);
+          param[3*i + 2] = 0;
+        }
+        wd.setParam(WeldingData.getParamKey(prm, con), param, 0, param.length);
+      }
+    }
+    return wd;
+  }
+  
+
   private WeldingData generateWeldingData(int version) {
     final WeldingData wd = new WeldingData();
     wd.setVersion(version);
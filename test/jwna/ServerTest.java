@@ -0,0 +1,162 @@
+package jwna;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ServerTest {
+  private static final int VERSION = 0x1_40;
+  private static final int FAST_KEY = 0x01230123;
+  
+
+  @Test
+  public void testDecode() throws IOException {
+    final List<byte[]> packets = new ArrayList<>();
+    packets.add(frame(2, 1, 0, getBegin(50)));
+    packets.add(frame(4, 5, 1, new byte[] {1, 1, 10, 0, 1, 20, 0, 2}));
+    packets.add(frame(4, 2, 2, new byte[0]));
+
+    final WeldingData wd =
+     Server.getInstance().decode(1, "10.0.0.1", packets);
+    assertTrue(wd.isLast());
+    assertEquals("2600777", wd.getPipeNumber());
+    assertEquals("15,7", wd.getPipeThickness());
+    assertArrayEquals(new byte[] {10, 0, 1, 20, 0, 2}, wd.getParam("1_1"));
+  }
+  
+
+  @Test
+  public void testTruncatedBegin() {
+    for(int len: new int[] {0, 9, 10, 30, 49}) {
+      final List<byte[]> packets = new ArrayList<>();
+      packets.add(frame(2, 1, 0, getBegin(len)));
+      assertRejected(packets);
+    }
+  }
+  
+
+  @Test
+  public void testTruncatedWriteParam() {
+    for(int len = 0; len < 2; len++) {
+      final List<byte[]> packets = new ArrayList<>();
+      packets.add(frame(2, 1, 0, getBegin(50)));
+      packets.add(frame(4, 5, 1, new byte[len]));
+      assertRejected(packets);
+    }
+  }
+  
+
+  @Test
+  public void testStaleBuffer() {
+    final byte[] param = new byte[0x800];
+    Arrays.fill(param, (byte)7);
+    final List<byte[]> packets = new ArrayList<>();
+    packets.add(frame(2, 1, 0, getBegin(50)));
+    packets.add(frame(4, 5, 1, param));
+    packets.add(frame(4, 5, 2, new byte[] {3}));
+    assertRejected(packets);
+
+    packets.clear();
+    packets.add(frame(2, 1, 0, getBegin(50)));
+    packets.add(frame(4, 1, 0, getBegin(12)));
+    assertRejected(packets);
+  }
+  
+
+  @Test
+  public void testDeflate() throws IOException {
+    final byte[] data = new byte[50000];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = (byte)(i % 10 == 9 ? '\n' : 'a' + i % 7);
+    }
+    final List<byte[]> packets = new ArrayList<>();
+    packets.add(frame(2, 1, 0, getBegin(50)));
+    packets.add(frame(4, 8, 1, deflate(new byte[] {1, 1},
+     new byte[] {10, 0, 1, 20, 0}, 5)));
+    packets.add(frame(4, 9, 2, deflate(new byte[] {1, 1},
+     new byte[] {2, 30, 0, 3}, 4)));
+    packets.add(frame(4, 7, 3, deflate(new byte[0], data, data.length)));
+    packets.add(frame(4, 2, 4, new byte[0]));
+
+    final WeldingData wd =
+     Server.getInstance().decode(1, "10.0.0.1", packets);
+    assertArrayEquals(new byte[] {10, 0, 1, 20, 0, 2, 30, 0, 3},
+     wd.getParam("1_1"));
+    assertEquals(new String(data, StandardCharsets.US_ASCII), wd.getData());
+  }
+  
+
+  @Test
+  public void testDeflateLength() {
+    final byte[] values = {10, 0, 1, 20, 0, 2};
+    for(int rawLen: new int[] {0, 5, 7, 0x100000}) {
+      final List<byte[]> packets = new ArrayList<>();
+      packets.add(frame(2, 1, 0, getBegin(50)));
+      packets.add(frame(4, 8, 1, deflate(new byte[] {1, 1}, values, rawLen)));
+      assertRejected(packets);
+    }
+  }
+  
+
+  private static byte[] deflate(byte[] header, byte[] values, int rawLen) {
+    final Deflater deflater = new Deflater();
+    deflater.setInput(values);
+    deflater.finish();
+    final byte[] buffer = new byte[values.length + 64];
+    final int length = deflater.deflate(buffer);
+    deflater.end();
+    final byte[] payload = new byte[header.length + 4 + length];
+    System.arraycopy(header, 0, payload, 0, header.length);
+    putInt(payload, header.length, rawLen, 4);
+    System.arraycopy(buffer, 0, payload, header.length + 4, length);
+    return payload;
+  }
+  
+
+  private static void assertRejected(List<byte[]> packets) {
+    try {
+      Server.getInstance().decode(1, "10.0.0.1", packets);
+      fail("Truncated packet was accepted");
+    }
+    catch(IOException ex) {
+    }
+  }
+  
+
+  private static byte[] getBegin(int len) {
+    final byte[] begin = new byte[50];
+    System.arraycopy("WELDING   ".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 0, 10);
+    System.arraycopy("2600777".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 10, 7);
+    System.arraycopy("15,7".getBytes(StandardCharsets.US_ASCII), 0,
+     begin, 30, 4);
+    return Arrays.copyOf(begin, len);
+  }
+  
+
+  private static byte[] frame(int lengthSize, int packetId, int seq,
+     byte[] payload) {
+    final int length = 10 + payload.length;
+    final byte[] packet = new byte[lengthSize + length];
+    putInt(packet, 0, length, lengthSize);
+    putInt(packet, lengthSize, FAST_KEY, 4);
+    putInt(packet, lengthSize + 4, VERSION, 2);
+    putInt(packet, lengthSize + 6, packetId, 2);
+    putInt(packet, lengthSize + 8, seq, 2);
+    System.arraycopy(payload, 0, packet, lengthSize + 10, payload.length);
+    return packet;
+  }
+  
+
+  private static void putInt(byte[] buffer, int offset, int value, int size) {
+    for(int i = 0; i < size; i++) {
+      buffer[offset + i] = (byte)(value >>> 8*i);
+    }
+  }
+}